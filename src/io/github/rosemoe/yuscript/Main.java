@@ -39,6 +39,17 @@ public class Main {
             "s(j+k,r)" +
             "end fn\n";
 
+    private final static String LOOP_CODE = "" +
+            "s i = 0\n" +
+            "s n = 300000\n" +
+            "w(i < n) {\n" +
+            "s x = \"item\" + i\n" +
+            "f(x == \"item7\") {\n" +
+            "s y = x\n" +
+            "}\n" +
+            "s(i+1,i)\n" +
+            "}\n";
+
     public static void main(String[] args) throws Throwable {
         //Create new interpreter
         YuInterpreter i = new YuInterpreter(0);
@@ -57,6 +68,37 @@ public class Main {
             i.eval(tree);
             System.out.println("Run #" + t + ":" + (System.nanoTime() - startTime) / 1e6 + "ms");
         }
+
+        //Evaluate the same tree on several threads at the same time
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        Thread[] threads = new Thread[threadCount];
+        long startTime = System.nanoTime();
+        for (int t = 0; t < threadCount; t++) {
+            threads[t] = new Thread(() -> {
+                for (int r = 0; r < 5; r++) {
+                    i.eval(tree);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        System.out.println("Concurrent run with " + threadCount + " threads:" + (System.nanoTime() - startTime) / 1e6 + "ms");
+
+        //Compare the tree walker with the virtual machine on a loop
+        YuTree loopTree = i.parse(LOOP_CODE);
+        for (int t = 1; t <= 5; t++) {
+            i.setVirtualMachineEnabled(false);
+            startTime = System.nanoTime();
+            i.eval(loopTree);
+            long treeTime = System.nanoTime() - startTime;
+            i.setVirtualMachineEnabled(true);
+            startTime = System.nanoTime();
+            i.eval(loopTree);
+            long vmTime = System.nanoTime() - startTime;
+            System.out.println("Loop #" + t + ": tree " + treeTime / 1e6 + "ms, vm " + vmTime / 1e6 + "ms");
+        }
     }
 
 }
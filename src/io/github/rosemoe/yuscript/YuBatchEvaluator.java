@@ -0,0 +1,368 @@
+/*
+ * Copyright 2020 Rose2073
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.rosemoe.yuscript;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import io.github.rosemoe.yuscript.output.CapturedYuOutput;
+import io.github.rosemoe.yuscript.tree.YuTree;
+import io.github.rosemoe.yuscript.tree.YuVariableType;
+
+/**
+ * Evaluate one syntax tree for many inputs.
+ * Each input is a set of local variables bound before evaluation, and the named output variables are
+ * collected after evaluation. Contexts are taken from {@link YuContext#obtain(int)} and recycled,
+ * so a long batch does not allocate a context per input.
+ * <p>
+ * A failed input does not stop the batch. Its error is reported in its {@link Result}.
+ *
+ * @author Rose
+ */
+public class YuBatchEvaluator {
+
+    private final YuInterpreter interpreter;
+
+    private final YuTree tree;
+
+    private Executor executor;
+
+    private boolean ordered = true;
+
+    private int maxPendingCount = 256;
+
+    private List<String> outputVariables = Collections.emptyList();
+
+    private int outputCaptureLimit = -1;
+
+    /**
+     * Create a batch evaluator
+     *
+     * @param interpreter Interpreter to evaluate with
+     * @param tree        Syntax tree to evaluate
+     */
+    public YuBatchEvaluator(YuInterpreter interpreter, YuTree tree) {
+        this.interpreter = Objects.requireNonNull(interpreter);
+        this.tree = Objects.requireNonNull(tree);
+    }
+
+    /**
+     * Set the executor that evaluates inputs.
+     * If it is null, inputs are evaluated one by one on the calling thread
+     *
+     * @param executor The executor to set
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Set whether results are delivered in the order of inputs.
+     * Unordered results are delivered as soon as they are ready
+     *
+     * @param ordered The ordered to set
+     */
+    public void setOrdered(boolean ordered) {
+        this.ordered = ordered;
+    }
+
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    /**
+     * Set max count of inputs submitted to executor but not delivered yet.
+     * Reading inputs is paused when the count is reached, so that a long stream of inputs
+     * is not read into memory at once
+     *
+     * @param maxPendingCount The maxPendingCount to set
+     */
+    public void setMaxPendingCount(int maxPendingCount) {
+        if (maxPendingCount <= 0) {
+            throw new IllegalArgumentException("maxPendingCount must be positive");
+        }
+        this.maxPendingCount = maxPendingCount;
+    }
+
+    public int getMaxPendingCount() {
+        return maxPendingCount;
+    }
+
+    /**
+     * Set names of local variables collected after each evaluation
+     *
+     * @param names Names of variables
+     */
+    public void setOutputVariables(String... names) {
+        outputVariables = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(names)));
+    }
+
+    public List<String> getOutputVariables() {
+        return outputVariables;
+    }
+
+    /**
+     * Capture text printed by each evaluation into its result, keeping at most the given count of bytes
+     *
+     * @param byteLimit Max bytes captured for each input. Negative to print to output of the interpreter
+     * @see Result#getPrintedText()
+     */
+    public void setOutputCaptureLimit(int byteLimit) {
+        this.outputCaptureLimit = byteLimit;
+    }
+
+    public int getOutputCaptureLimit() {
+        return outputCaptureLimit;
+    }
+
+    /**
+     * Evaluate all inputs and wait for them
+     *
+     * @param inputs Local variables for each evaluation
+     * @return Results in order of delivery
+     */
+    public List<Result> evaluate(Collection<? extends Map<String, ?>> inputs) {
+        List<Result> results = new ArrayList<>(inputs.size());
+        evaluate(inputs.iterator(), results::add);
+        return results;
+    }
+
+    /**
+     * Evaluate all inputs and wait for them
+     *
+     * @param inputs Local variables for each evaluation
+     * @return Results in order of delivery
+     */
+    public List<Result> evaluate(Stream<? extends Map<String, ?>> inputs) {
+        List<Result> results = new ArrayList<>();
+        evaluate(inputs.iterator(), results::add);
+        return results;
+    }
+
+    /**
+     * Evaluate all inputs and wait for them.
+     * Consumer is never called by two threads at the same time
+     *
+     * @param inputs   Local variables for each evaluation
+     * @param consumer Receiver of results
+     */
+    public void evaluate(Iterator<? extends Map<String, ?>> inputs, Consumer<? super Result> consumer) {
+        Executor executor = this.executor;
+        long index = 0;
+        if (executor == null) {
+            while (inputs.hasNext()) {
+                consumer.accept(evaluateOne(index++, inputs.next()));
+            }
+            return;
+        }
+        int maxPendingCount = this.maxPendingCount;
+        Semaphore pending = new Semaphore(maxPendingCount);
+        // Permits are released when results are handed to consumer, so results waiting for
+        // earlier ones in ordered mode are counted as pending
+        Delivery delivery = new Delivery(consumer, ordered, pending);
+        while (inputs.hasNext()) {
+            Map<String, ?> input = inputs.next();
+            long current = index++;
+            pending.acquireUninterruptibly();
+            try {
+                executor.execute(() -> delivery.deliver(evaluateOne(current, input)));
+            } catch (RuntimeException e) {
+                delivery.deliver(new Result(current, null, null, e));
+            }
+        }
+        // All permits are back only after every result is delivered
+        pending.acquireUninterruptibly(maxPendingCount);
+        pending.release(maxPendingCount);
+        delivery.rethrow();
+    }
+
+    private Result evaluateOne(long index, Map<String, ?> input) {
+        YuContext context = YuContext.obtain(interpreter.getSession());
+        CapturedYuOutput captured = outputCaptureLimit >= 0 ? new CapturedYuOutput(outputCaptureLimit) : null;
+        try {
+            context.setOutput(captured);
+            for (Map.Entry<String, ?> entry : input.entrySet()) {
+                context.setVariable(YuVariableType.LOCAL, entry.getKey(), entry.getValue());
+            }
+            interpreter.eval(tree, context);
+            List<String> names = outputVariables;
+            Map<String, Object> outputs = new LinkedHashMap<>(Math.max(4, names.size() * 2));
+            for (String name : names) {
+                outputs.put(name, context.getVariable(YuVariableType.LOCAL, name));
+            }
+            return new Result(index, outputs, captured, null);
+        } catch (Throwable e) {
+            return new Result(index, null, captured, e);
+        } finally {
+            YuContext.recycle(context);
+        }
+    }
+
+    /**
+     * Hand results to consumer one at a time, optionally in order of inputs.
+     * A permit of the semaphore is released for each result handed over or dropped
+     */
+    private static class Delivery {
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final Consumer<? super Result> consumer;
+
+        private final Map<Long, Result> waiting;
+
+        private final Semaphore pending;
+
+        private long nextIndex;
+
+        private Throwable consumerError;
+
+        Delivery(Consumer<? super Result> consumer, boolean ordered, Semaphore pending) {
+            this.consumer = consumer;
+            this.pending = pending;
+            waiting = ordered ? new HashMap<>() : null;
+        }
+
+        void deliver(Result result) {
+            lock.lock();
+            try {
+                if (consumerError != null) {
+                    pending.release();
+                    return;
+                }
+                if (waiting == null) {
+                    handOver(result);
+                    return;
+                }
+                waiting.put(result.getIndex(), result);
+                while ((result = waiting.remove(nextIndex)) != null) {
+                    nextIndex++;
+                    handOver(result);
+                }
+            } catch (RuntimeException | Error e) {
+                consumerError = e;
+                if (waiting != null) {
+                    // Results waiting for earlier ones are dropped
+                    pending.release(waiting.size());
+                    waiting.clear();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void handOver(Result result) {
+            try {
+                consumer.accept(result);
+            } finally {
+                pending.release();
+            }
+        }
+
+        void rethrow() {
+            if (consumerError instanceof Error) {
+                throw (Error) consumerError;
+            }
+            if (consumerError != null) {
+                throw (RuntimeException) consumerError;
+            }
+        }
+
+    }
+
+    /**
+     * Outcome of evaluation for one input
+     */
+    public static final class Result {
+
+        private final long index;
+
+        private final Map<String, Object> outputs;
+
+        private final CapturedYuOutput printed;
+
+        private final Throwable error;
+
+        Result(long index, Map<String, Object> outputs, CapturedYuOutput printed, Throwable error) {
+            this.index = index;
+            this.outputs = outputs == null ? Collections.emptyMap() : Collections.unmodifiableMap(outputs);
+            this.printed = printed;
+            this.error = error;
+        }
+
+        /**
+         * @return Position of the input, starting from 0
+         */
+        public long getIndex() {
+            return index;
+        }
+
+        /**
+         * @return Values of output variables. Empty if evaluation failed
+         */
+        public Map<String, Object> getOutputs() {
+            return outputs;
+        }
+
+        public Object getOutput(String name) {
+            return outputs.get(name);
+        }
+
+        /**
+         * @return Text printed by evaluation, or null if output is not captured
+         * @see YuBatchEvaluator#setOutputCaptureLimit(int)
+         */
+        public String getPrintedText() {
+            return printed == null ? null : printed.getText();
+        }
+
+        /**
+         * @return Whether printed text is cut at the capture limit
+         */
+        public boolean isPrintedTextTruncated() {
+            return printed != null && printed.isTruncated();
+        }
+
+        /**
+         * @return The error thrown by evaluation, or null if it succeeded
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        public boolean isSuccessful() {
+            return error == null;
+        }
+
+    }
+
+}
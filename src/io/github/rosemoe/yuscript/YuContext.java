@@ -15,14 +15,26 @@
  */
 package io.github.rosemoe.yuscript;
 
+import io.github.rosemoe.yuscript.functions.Function;
+import io.github.rosemoe.yuscript.output.YuOutput;
+import io.github.rosemoe.yuscript.trace.YuTrace;
 import io.github.rosemoe.yuscript.tree.YuCodeBlock;
 import io.github.rosemoe.yuscript.tree.YuFunction;
+import io.github.rosemoe.yuscript.tree.YuRuntimeError;
 import io.github.rosemoe.yuscript.tree.YuVariableType;
 import io.github.rosemoe.yuscript.util.LocalStack;
+import io.github.rosemoe.yuscript.variable.MemoryVariableStore;
+import io.github.rosemoe.yuscript.variable.Session;
+import io.github.rosemoe.yuscript.variable.VariableStore;
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 
 /**
  * The context used to save and manage variables and call stack in script environment
@@ -30,77 +42,85 @@ import java.util.concurrent.ConcurrentHashMap;
  * @author Rose
  */
 public class YuContext {
-    private final static int CACHE_SIZE = 32;
-    private static int cacheCount;
-    private final static YuContext[] sCache = new YuContext[CACHE_SIZE];
+    private static volatile YuContextPool contextPool = new YuContextPool(32);
 
+    /**
+     * Get a context from the context pool
+     *
+     * @param session Session of context
+     * @return A clean context
+     * @see YuContextPool#obtain(int)
+     */
     public static YuContext obtain(int session) {
-        synchronized (YuContext.class) {
-            if (cacheCount > 0) {
-                YuContext context = sCache[--cacheCount];
-                sCache[cacheCount] = null;
-                if (context.session != session) {
-                    context.session = session;
-                    context.sessionVariables = getSessionVariableMap(session);
-                }
-                return context;
-            }
-        }
-        return new YuContext(session);
+        return contextPool.obtain(session);
     }
 
+    /**
+     * Put the context back to the context pool
+     *
+     * @param context The context to recycle
+     * @see YuContextPool#recycle(YuContext)
+     */
     public static void recycle(YuContext context) {
-        context.reset();
-        synchronized (YuContext.class) {
-            if (cacheCount < CACHE_SIZE) {
-                sCache[cacheCount++] = context;
-            }
-        }
+        contextPool.recycle(context);
     }
 
-    public static void clearSession(int session) {
-        sessionVariableMaps.remove(session);
-        synchronized (YuContext.class) {
-            for (int i = 0; i < CACHE_SIZE; i++) {
-                if (sCache[i].session == session) {
-                    sCache[i] = null;
-                }
-            }
-        }
+    /**
+     * Set the pool used by {@link #obtain(int)} and {@link #recycle(YuContext)}
+     *
+     * @param pool New context pool
+     */
+    public static void setContextPool(YuContextPool pool) {
+        contextPool = Objects.requireNonNull(pool);
     }
 
-    private static final Map<Integer, Map<String, Object>> sessionVariableMaps;
+    public static YuContextPool getContextPool() {
+        return contextPool;
+    }
+
+    /**
+     * Remove all variables of the given session
+     *
+     * @param session Session id
+     */
+    public static void clearSession(int session) {
+        variableStore.invalidateSession(session);
+    }
 
-    private static final Map<String, Object> globalVariables;
+    private static volatile VariableStore variableStore = new MemoryVariableStore();
 
-    static {
-        globalVariables = new ConcurrentHashMap<>();
-        sessionVariableMaps = new ConcurrentHashMap<>();
+    /**
+     * Set the store that holds session and global variables.
+     * This method should be called when no evaluation is in progress.
+     * Variables in old store are not moved to the new store.
+     *
+     * @param store New variable store
+     */
+    public static void setVariableStore(VariableStore store) {
+        variableStore = Objects.requireNonNull(store);
     }
 
-    private static Map<String, Object> getSessionVariableMap(int session) {
-        Map<String, Object> map = sessionVariableMaps.get(session);
-        if (map == null) {
-            synchronized (YuContext.class) {
-                map = sessionVariableMaps.get(session);
-                if (map == null) {
-                    map = new ConcurrentHashMap<>();
-                    sessionVariableMaps.put(session, map);
-                }
-            }
-        }
-        return map;
+    public static VariableStore getVariableStore() {
+        return variableStore;
     }
 
     private Map<String, Object> sessionVariables;
-    private final Map<String, Object> localVariables;
+    private Session pinnedSession;
+    private Map<String, Object> globalVariables;
     private int session;
-    private boolean stopFlag = false;
     public final static YuCodeBlock NO_CODE_BLOCK = new YuCodeBlock();
     private YuInterpreter declaringInterpreter;
     private final LocalStack<BoolWrapper> loopEnv = new LocalStack<>();
     private final LocalStack<YuCodeBlock> functionSearchScopes = new LocalStack<>();
-    private final Object[] fastLocals = new Object[26];
+    private YuFrame[] frames = new YuFrame[8];
+    private int frameDepth;
+    private YuFrame frame;
+    private Object[] fastLocals;
+    private volatile boolean aborted;
+    private volatile CompletableFuture<?> awaiting;
+    private YuTrace trace;
+
+    private YuOutput output;
 
     public void pushFunctionSearchScope(YuCodeBlock codeBlock) {
         functionSearchScopes.add(codeBlock);
@@ -111,7 +131,7 @@ public class YuContext {
     }
 
     public YuFunction findFunctionFromScope(String name, int paramCount) {
-        for (int i = functionSearchScopes.size() - 1; i >= 0; i--) {
+        for (int i = functionSearchScopes.size() - 1; i >= frame.scopeBase; i--) {
             YuCodeBlock codeBlock = functionSearchScopes.get(i);
             YuFunction function;
             if ((function = codeBlock.getFunction(name, paramCount)) != null) {
@@ -121,6 +141,107 @@ public class YuContext {
         return null;
     }
 
+    /**
+     * Get the frame that will be entered by next {@link #enterFrame()}.
+     * Arguments of the call should be set to it while the caller's frame is still active.
+     *
+     * @return A clean frame
+     */
+    public YuFrame prepareFrame() {
+        int index = frameDepth + 1;
+        if (index == frames.length) {
+            frames = Arrays.copyOf(frames, frames.length << 1);
+        }
+        YuFrame next = frames[index];
+        if (next == null) {
+            next = frames[index] = new YuFrame();
+        } else {
+            next.clear();
+        }
+        return next;
+    }
+
+    /**
+     * Enter the frame returned by {@link #prepareFrame()}.
+     * Loops and function search scopes of the caller are invisible in the new frame.
+     *
+     * @param function The function that runs in the new frame
+     */
+    public void enterFrame(Function function) {
+        YuFrame next = frames[++frameDepth];
+        next.loopBase = loopEnv.size();
+        next.scopeBase = functionSearchScopes.size();
+        next.function = function;
+        setCurrentFrame(next);
+    }
+
+    /**
+     * Replace current frame with the frame returned by {@link #prepareFrame()} for a tail call
+     * of current function. Current frame stops immediately, and {@link #consumeRestart()} returns true
+     * to the function so that it runs again in the new frame.
+     */
+    public void restartFrame() {
+        YuFrame current = frame;
+        YuFrame next = frames[frameDepth + 1];
+        next.loopBase = current.loopBase;
+        next.scopeBase = current.scopeBase;
+        next.function = current.function;
+        next.restartPending = true;
+        next.stopFlag = true;
+        frames[frameDepth] = next;
+        frames[frameDepth + 1] = current;
+        setCurrentFrame(next);
+    }
+
+    /**
+     * Check whether current frame is restarted by {@link #restartFrame()} and clear the state
+     *
+     * @return Whether the function should run again
+     */
+    public boolean consumeRestart() {
+        YuFrame current = frame;
+        if (current.restartPending) {
+            current.restartPending = false;
+            current.stopFlag = false;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return The function running in current frame. Null for top level code
+     */
+    public Function getCurrentFunction() {
+        return frame.function;
+    }
+
+    /**
+     * Return to the caller's frame.
+     * Variables of the exited frame are still readable until next {@link #prepareFrame()}.
+     *
+     * @return The exited frame
+     */
+    public YuFrame exitFrame() {
+        if (frameDepth == 0) {
+            throw new IllegalStateException("no frame to exit");
+        }
+        YuFrame exited = frame;
+        setCurrentFrame(frames[--frameDepth]);
+        return exited;
+    }
+
+    /**
+     * @return Count of function frames entered. 0 for top level code
+     */
+    public int getFrameDepth() {
+        return frameDepth;
+    }
+
+    private void setCurrentFrame(YuFrame frame) {
+        this.frame = frame;
+        fastLocals = frame.fastLocals;
+    }
+
     /**
      * Wrapper class
      */
@@ -149,7 +270,7 @@ public class YuContext {
      * @return whether in a loop
      */
     public boolean isInLoop() {
-        return !loopEnv.empty();
+        return loopEnv.size() > frame.loopBase;
     }
 
     /**
@@ -174,17 +295,115 @@ public class YuContext {
     }
 
     /**
+     * @param trace the trace of current evaluation to set. null if it is not traced
+     */
+    public void setTrace(YuTrace trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * @return the trace of current evaluation, or null
+     */
+    public YuTrace getTrace() {
+        return trace;
+    }
+
+    /**
+     * Set the output of 'syso' for evaluations in this context.
+     * Contexts created from this context share the output
+     *
+     * @param output the output to set. null to use output of the interpreter
+     * @see io.github.rosemoe.yuscript.output.CapturedYuOutput
+     */
+    public void setOutput(YuOutput output) {
+        this.output = output;
+    }
+
+    /**
+     * @return the output of this context, or null if output of the interpreter is used
+     */
+    public YuOutput getOutput() {
+        return output;
+    }
+
+    /**
+     * Set stop flag of current frame.
+     * In a function, this returns from the function. At top level, this stops the script.
+     *
      * @param stopFlag the stopFlag to set
      */
     public void setStopFlag(boolean stopFlag) {
-        this.stopFlag = stopFlag;
+        frame.stopFlag = stopFlag;
     }
 
     /**
      * @return the stopFlag
      */
     public boolean isStopFlagSet() {
-        return stopFlag || (!loopEnv.empty() && loopEnv.peek().value);
+        return frame.stopFlag || aborted || (loopEnv.size() > frame.loopBase && loopEnv.peek().value);
+    }
+
+    /**
+     * Check the stop flag of current frame and abortion, ignoring break of loops
+     *
+     * @return Whether statements of current frame should not be executed any more
+     */
+    public boolean isFrameStopped() {
+        return frame.stopFlag || aborted;
+    }
+
+    /**
+     * Stop the evaluation running on this context from any thread.
+     * Statements are not executed any more in all frames, and {@link #await(CompletionStage)} in progress
+     * returns with a {@link YuRuntimeError}.
+     */
+    public void abort() {
+        aborted = true;
+        CompletableFuture<?> waiter = awaiting;
+        if (waiter != null) {
+            waiter.cancel(false);
+        }
+    }
+
+    /**
+     * @return Whether {@link #abort()} is called since last reset
+     */
+    public boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * Wait for an asynchronous operation started by a function.
+     * Functions doing I/O should start it asynchronously and wait here rather than block inside I/O calls:
+     * the wait is cancelled by {@link #abort()}, and it lets a {@link java.util.concurrent.ForkJoinPool}
+     * running the evaluation add a compensating thread while this one is blocked.
+     *
+     * @param stage The operation
+     * @return Result of the operation
+     * @throws YuRuntimeError If the evaluation is aborted or the operation fails
+     */
+    public <T> T await(CompletionStage<T> stage) {
+        CompletableFuture<T> waiter = new CompletableFuture<>();
+        stage.whenComplete((result, error) -> {
+            if (error == null) {
+                waiter.complete(result);
+            } else {
+                waiter.completeExceptionally(error);
+            }
+        });
+        awaiting = waiter;
+        try {
+            if (aborted) {
+                waiter.cancel(false);
+            }
+            return waiter.join();
+        } catch (CancellationException e) {
+            throw new YuRuntimeError("evaluation aborted", e);
+        } catch (CompletionException e) {
+            throw new YuRuntimeError("awaited operation failed", e.getCause());
+        } finally {
+            awaiting = null;
+        }
     }
 
     /**
@@ -193,9 +412,10 @@ public class YuContext {
      * @param session Session for variable management
      */
     public YuContext(int session) {
-        sessionVariables = getSessionVariableMap(session);
-        localVariables = new HashMap<>();
+        frames[0] = new YuFrame();
+        setCurrentFrame(frames[0]);
         this.session = session;
+        attachVariableStore();
     }
 
     /**
@@ -212,12 +432,74 @@ public class YuContext {
     public YuContext(YuContext context, boolean copyLocalVariables, boolean copyStack) {
         this(context.getSession());
         if (copyLocalVariables) {
-            localVariables.putAll(context.localVariables);
+            frame.copyFrom(context.frame);
         }
         if (copyStack) {
-            functionSearchScopes.addAll(context.functionSearchScopes);
+            // Only scopes visible from the current frame. Functions of callers are not visible in it
+            List<YuCodeBlock> scopes = context.functionSearchScopes;
+            functionSearchScopes.addAll(scopes.subList(context.frame.scopeBase, scopes.size()));
         }
         declaringInterpreter = context.declaringInterpreter;
+        output = context.output;
+    }
+
+    private void attachVariableStore() {
+        VariableStore store = variableStore;
+        sessionVariables = store.getSessionVariables(session);
+        globalVariables = store.getGlobalVariables();
+    }
+
+    /**
+     * Attach a pooled context to the given session.
+     * Session variables are fetched again because the session may have been evicted
+     * or the store replaced since last use.
+     */
+    void attach(int session) {
+        this.session = session;
+        attachVariableStore();
+        pinSession();
+    }
+
+    /**
+     * Pin the session until {@link #unpinSession()} is called, so that it is not evicted while in use.
+     * Session variables are fetched again if the session has been evicted.
+     *
+     * @return Whether the session is pinned by this call. False if it is pinned already
+     */
+    boolean pinSession() {
+        if (pinnedSession != null) {
+            return false;
+        }
+        while (sessionVariables instanceof Session) {
+            Session session = (Session) sessionVariables;
+            if (session.pin()) {
+                pinnedSession = session;
+                return true;
+            }
+            // Being evicted. A new one is created after it is removed
+            Thread.yield();
+            sessionVariables = variableStore.getSessionVariables(this.session);
+        }
+        return false;
+    }
+
+    /**
+     * Release the pin obtained by {@link #pinSession()}
+     */
+    void unpinSession() {
+        if (pinnedSession != null) {
+            pinnedSession.unpin();
+            pinnedSession = null;
+        }
+    }
+
+    /**
+     * Release references to shared variables before the context is pooled
+     */
+    void detach() {
+        unpinSession();
+        sessionVariables = null;
+        globalVariables = null;
     }
 
     /**
@@ -237,7 +519,7 @@ public class YuContext {
     private Map<String, Object> getVariableMapForType(@YuVariableType int type) {
         switch (type) {
             case YuVariableType.LOCAL:
-                return localVariables;
+                return frame.getLocalVariables();
             case YuVariableType.SESSION:
                 return sessionVariables;
             case YuVariableType.GLOBAL:
@@ -253,12 +535,9 @@ public class YuContext {
      * @param value  The value of variable
      */
     public void setVariable(@YuVariableType int type, String name, Object value) {
-        if (type == YuVariableType.LOCAL && name.length() == 1) {
-            char ch = name.charAt(0);
-            if (ch >= 'a' && ch <= 'z') {
-                fastLocals[ch - 'a'] = value;
-                return;
-            }
+        if (type == YuVariableType.LOCAL) {
+            frame.setLocal(YuFrame.slotOf(name), name, value);
+            return;
         }
         Map<String, Object> map = getVariableMapForType(type);
         if (value == null) {
@@ -275,24 +554,96 @@ public class YuContext {
      * @return The value of variable
      */
     public Object getVariable(@YuVariableType int type, String name) {
-        if (type == YuVariableType.LOCAL && name.length() == 1) {
-            char ch = name.charAt(0);
-            if (ch >= 'a' && ch <= 'z') {
-                return fastLocals[ch - 'a'];
+        if (type == YuVariableType.LOCAL) {
+            if (name.length() == 1) {
+                char ch = name.charAt(0);
+                if (ch >= 'a' && ch <= 'z') {
+                    return fastLocals[ch - 'a'];
+                }
             }
+            return frame.getLocal(-1, name);
         }
         return getVariableMapForType(type).get(name);
     }
 
+    /**
+     * Get slots of single letter local variables of current frame.
+     * The array is owned by the frame and is only valid until the frame exits or restarts
+     *
+     * @return The slots, indexed by {@link YuFrame#slotOf(String)}
+     */
+    public Object[] getFastLocals() {
+        return fastLocals;
+    }
+
+    /**
+     * Take the spare register array of current frame, so that running a program does not allocate.
+     * A new array is created if the spare one is in use or too small
+     *
+     * @param count Count of registers, including the local variable slots
+     * @return Registers. Slots after the local variable slots are null
+     * @see #releaseRegisters(Object[], int)
+     */
+    public Object[] takeRegisters(int count) {
+        Object[] registers = frame.registers;
+        if (registers != null && registers.length >= count) {
+            frame.registers = null;
+            return registers;
+        }
+        return new Object[count];
+    }
+
+    /**
+     * Clear the registers and keep them as the spare array of current frame
+     *
+     * @param registers Array obtained by {@link #takeRegisters(int)}
+     * @param count     Count of registers used
+     */
+    public void releaseRegisters(Object[] registers, int count) {
+        Arrays.fill(registers, YuFrame.FAST_SLOT_COUNT, count, null);
+        Object[] spare = frame.registers;
+        if (spare == null || spare.length < registers.length) {
+            frame.registers = registers;
+        }
+    }
+
+    /**
+     * Get a local variable of current frame by its slot
+     *
+     * @param slot Slot resolved by {@link YuFrame#slotOf(String)}
+     * @param name Name of variable
+     * @return Value of variable
+     */
+    public Object getLocal(int slot, String name) {
+        if (slot >= 0) {
+            return fastLocals[slot];
+        }
+        return frame.getLocal(-1, name);
+    }
+
+    /**
+     * Set a local variable of current frame by its slot
+     *
+     * @param slot  Slot resolved by {@link YuFrame#slotOf(String)}
+     * @param name  Name of variable
+     * @param value New value
+     */
+    public void setLocal(int slot, String name, Object value) {
+        frame.setLocal(slot, name, value);
+    }
+
     public void reset() {
         loopEnv.clear();
         functionSearchScopes.clear();
         declaringInterpreter = null;
-        stopFlag = false;
-        localVariables.clear();
-        System.arraycopy(EMPTY_LOCALS, 0, fastLocals, 0, 26);
+        for (int i = 0; i < frames.length && frames[i] != null; i++) {
+            frames[i].clear();
+        }
+        frameDepth = 0;
+        setCurrentFrame(frames[0]);
+        aborted = false;
+        trace = null;
+        output = null;
     }
 
-    private final static Object[] EMPTY_LOCALS = new Object[26];
-
 }
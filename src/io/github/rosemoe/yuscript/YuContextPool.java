@@ -0,0 +1,219 @@
+/*
+ * Copyright 2020 Rose2073
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.rosemoe.yuscript;
+
+import io.github.rosemoe.yuscript.metrics.YuMetrics;
+
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of {@link YuContext} objects.
+ * By default each thread has its own pool, so obtaining and recycling contexts never contend between threads.
+ * A shared pool can be used instead when there are many short-lived threads (such as virtual threads),
+ * which would never reuse their own pools. The shared pool is lock-free.
+ * Pooled contexts keep no reference to session variables.
+ * Contexts obtained from a pool pin their session until they are recycled, so it is not evicted while in use.
+ *
+ * @author Rose
+ */
+public final class YuContextPool {
+
+    private final int capacity;
+
+    private final ThreadLocal<LocalPool> localPool;
+
+    private final AtomicReferenceArray<YuContext> sharedPool;
+
+    private final LongAdder hitCount = new LongAdder();
+
+    private final LongAdder missCount = new LongAdder();
+
+    private volatile YuMetrics metrics = YuMetrics.NONE;
+
+    /**
+     * Create a context pool with a pool for each thread
+     *
+     * @param capacity Max count of cached contexts for each thread
+     */
+    public YuContextPool(int capacity) {
+        this(capacity, true);
+    }
+
+    /**
+     * Create a context pool
+     *
+     * @param capacity    Max count of cached contexts for each thread, or in total if the pool is shared
+     * @param threadLocal Whether each thread has its own pool
+     */
+    public YuContextPool(int capacity, boolean threadLocal) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity can not be negative");
+        }
+        this.capacity = capacity;
+        if (threadLocal) {
+            localPool = ThreadLocal.withInitial(() -> new LocalPool(capacity));
+            sharedPool = null;
+        } else {
+            localPool = null;
+            sharedPool = new AtomicReferenceArray<>(capacity);
+        }
+    }
+
+    /**
+     * Set the metrics receiving hits and misses of this pool
+     *
+     * @param metrics New metrics
+     */
+    public void setMetrics(YuMetrics metrics) {
+        this.metrics = Objects.requireNonNull(metrics);
+    }
+
+    public YuMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return Whether each thread has its own pool
+     */
+    public boolean isThreadLocal() {
+        return localPool != null;
+    }
+
+    /**
+     * @return Max count of cached contexts for each thread, or in total if the pool is shared
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Get a context from pool or create a new one
+     *
+     * @param session Session of context
+     * @return A clean context
+     */
+    public YuContext obtain(int session) {
+        YuContext context = localPool != null ? pollLocal() : pollShared();
+        metrics.onContextObtained(context != null);
+        if (context != null) {
+            hitCount.increment();
+            context.attach(session);
+            return context;
+        }
+        missCount.increment();
+        YuContext created = new YuContext(session);
+        created.pinSession();
+        return created;
+    }
+
+    private YuContext pollLocal() {
+        LocalPool pool = localPool.get();
+        if (pool.count > 0) {
+            YuContext context = pool.contexts[--pool.count];
+            pool.contexts[pool.count] = null;
+            return context;
+        }
+        return null;
+    }
+
+    private YuContext pollShared() {
+        AtomicReferenceArray<YuContext> slots = sharedPool;
+        int length = slots.length();
+        // Start from a random slot to spread threads over the array
+        int start = length == 0 ? 0 : ThreadLocalRandom.current().nextInt(length);
+        for (int i = 0; i < length; i++) {
+            int index = start + i < length ? start + i : start + i - length;
+            if (slots.get(index) != null) {
+                YuContext context = slots.getAndSet(index, null);
+                if (context != null) {
+                    return context;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reset the context and put it into pool of current thread, or the shared pool.
+     * The context must not be used after recycling.
+     *
+     * @param context The context to recycle
+     */
+    public void recycle(YuContext context) {
+        context.reset();
+        context.detach();
+        if (localPool != null) {
+            LocalPool pool = localPool.get();
+            if (pool.count < capacity) {
+                pool.contexts[pool.count++] = context;
+            }
+            return;
+        }
+        AtomicReferenceArray<YuContext> slots = sharedPool;
+        int length = slots.length();
+        int start = length == 0 ? 0 : ThreadLocalRandom.current().nextInt(length);
+        for (int i = 0; i < length; i++) {
+            int index = start + i < length ? start + i : start + i - length;
+            if (slots.get(index) == null && slots.compareAndSet(index, null, context)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return Count of {@link #obtain(int)} calls that reused a pooled context
+     */
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    /**
+     * @return Count of {@link #obtain(int)} calls that created a new context
+     */
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * @return Ratio of hits in all {@link #obtain(int)} calls. 1 if never obtained
+     */
+    public double getHitRate() {
+        long hits = getHitCount();
+        long total = hits + getMissCount();
+        return total == 0 ? 1 : (double) hits / total;
+    }
+
+    public void resetStatistics() {
+        hitCount.reset();
+        missCount.reset();
+    }
+
+    private static final class LocalPool {
+
+        final YuContext[] contexts;
+
+        int count;
+
+        LocalPool(int capacity) {
+            contexts = new YuContext[capacity];
+        }
+
+    }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2020 Rose2073
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.rosemoe.yuscript;
+
+import io.github.rosemoe.yuscript.functions.Function;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Local variables and control state of a function call.
+ * Frames are owned by a {@link YuContext} and reused between calls, so calling a function does not allocate.
+ *
+ * @author Rose
+ */
+public final class YuFrame {
+
+    /**
+     * Count of slots for single letter variables ('a' to 'z')
+     */
+    public final static int FAST_SLOT_COUNT = 26;
+
+    final Object[] fastLocals = new Object[FAST_SLOT_COUNT];
+
+    Map<String, Object> localVariables;
+
+    boolean stopFlag;
+
+    int loopBase;
+
+    int scopeBase;
+
+    Function function;
+
+    boolean restartPending;
+
+    /**
+     * Spare registers for programs of the virtual machine, kept between calls
+     */
+    Object[] registers;
+
+    YuFrame() {
+    }
+
+    /**
+     * Get the fast slot of a local variable name
+     *
+     * @param name Name of local variable
+     * @return The slot index, or -1 if the variable is not stored in a fast slot
+     */
+    public static int slotOf(String name) {
+        if (name.length() == 1) {
+            char ch = name.charAt(0);
+            if (ch >= 'a' && ch <= 'z') {
+                return ch - 'a';
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get a local variable
+     *
+     * @param slot Slot resolved by {@link #slotOf(String)}
+     * @param name Name of variable
+     * @return Value of variable
+     */
+    public Object getLocal(int slot, String name) {
+        if (slot >= 0) {
+            return fastLocals[slot];
+        }
+        return localVariables == null ? null : localVariables.get(name);
+    }
+
+    /**
+     * Set a local variable
+     *
+     * @param slot  Slot resolved by {@link #slotOf(String)}
+     * @param name  Name of variable
+     * @param value New value
+     */
+    public void setLocal(int slot, String name, Object value) {
+        if (slot >= 0) {
+            fastLocals[slot] = value;
+            return;
+        }
+        if (value == null) {
+            if (localVariables != null) {
+                localVariables.remove(name);
+            }
+            return;
+        }
+        getLocalVariables().put(name, value);
+    }
+
+    Map<String, Object> getLocalVariables() {
+        if (localVariables == null) {
+            localVariables = new HashMap<>();
+        }
+        return localVariables;
+    }
+
+    void copyFrom(YuFrame frame) {
+        System.arraycopy(frame.fastLocals, 0, fastLocals, 0, FAST_SLOT_COUNT);
+        if (frame.localVariables != null && !frame.localVariables.isEmpty()) {
+            getLocalVariables().putAll(frame.localVariables);
+        }
+    }
+
+    void clear() {
+        Arrays.fill(fastLocals, null);
+        if (localVariables != null && !localVariables.isEmpty()) {
+            localVariables.clear();
+        }
+        stopFlag = false;
+        loopBase = 0;
+        scopeBase = 0;
+        function = null;
+        restartPending = false;
+    }
+
+}
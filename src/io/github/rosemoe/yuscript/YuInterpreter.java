@@ -15,13 +15,26 @@
  */
 package io.github.rosemoe.yuscript;
 
-import java.lang.reflect.Array;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import io.github.rosemoe.yuscript.functions.Function;
 import io.github.rosemoe.yuscript.functions.FunctionManager;
 import io.github.rosemoe.yuscript.functions.YuModule;
+import io.github.rosemoe.yuscript.ir.ForCursor;
+import io.github.rosemoe.yuscript.ir.YuVirtualMachine;
+import io.github.rosemoe.yuscript.metrics.YuMetrics;
+import io.github.rosemoe.yuscript.output.AsyncYuOutput;
+import io.github.rosemoe.yuscript.output.YuOutput;
+import io.github.rosemoe.yuscript.trace.YuTrace;
+import io.github.rosemoe.yuscript.trace.YuTracer;
 import io.github.rosemoe.yuscript.tree.*;
 
 /**
@@ -34,6 +47,31 @@ public class YuInterpreter implements YuTreeVisitor<Void, YuContext> {
 
     private FunctionManager functionManager;
 
+    private int maxCallDepth = DEFAULT_MAX_CALL_DEPTH;
+
+    private ForkJoinPool forkJoinPool;
+
+    private Executor asyncExecutor;
+
+    private volatile YuMetrics metrics = YuMetrics.NONE;
+
+    private volatile YuTracer tracer;
+
+    private volatile YuOutput output;
+
+    private volatile YuVirtualMachine virtualMachine;
+
+    /**
+     * Default max depth of nested user function calls, which is no limit.
+     * Calls are then limited by the Java stack, and overflowing it fails with a {@link YuRuntimeError}
+     */
+    public final static int DEFAULT_MAX_CALL_DEPTH = Integer.MAX_VALUE;
+
+    /**
+     * States of a pooled context in {@link #evalAsync(YuTree, String...)}
+     */
+    private final static int ASYNC_RUNNING = 0, ASYNC_DONE = 1, ASYNC_ABORTING = 2, ASYNC_ABORTED = 3;
+
     public YuInterpreter(int session) {
         this(session, new FunctionManager());
     }
@@ -60,6 +98,43 @@ public class YuInterpreter implements YuTreeVisitor<Void, YuContext> {
         return functionManager;
     }
 
+    /**
+     * Set max depth of nested user function calls.
+     * Calls deeper than this fail with a {@link YuRuntimeError} before the Java stack overflows.
+     * Self calls in tail position do not increase the depth.
+     * This method should be called when no evaluation is in progress
+     *
+     * @param maxCallDepth New max depth. {@link #DEFAULT_MAX_CALL_DEPTH} for no limit
+     */
+    public void setMaxCallDepth(int maxCallDepth) {
+        if (maxCallDepth < 0) {
+            throw new IllegalArgumentException("maxCallDepth can not be negative");
+        }
+        this.maxCallDepth = maxCallDepth;
+    }
+
+    public int getMaxCallDepth() {
+        return maxCallDepth;
+    }
+
+    /**
+     * Set the pool that runs iterations of parallel loops ('pfor').
+     * This method should be called when no evaluation is in progress
+     *
+     * @param forkJoinPool New pool. null to use the common pool
+     */
+    public void setForkJoinPool(ForkJoinPool forkJoinPool) {
+        this.forkJoinPool = forkJoinPool;
+    }
+
+    /**
+     * @return the pool for parallel loops
+     */
+    public ForkJoinPool getForkJoinPool() {
+        ForkJoinPool pool = forkJoinPool;
+        return pool == null ? ForkJoinPool.commonPool() : pool;
+    }
+
     /**
      * @return the session
      */
@@ -67,14 +142,192 @@ public class YuInterpreter implements YuTreeVisitor<Void, YuContext> {
         return session;
     }
 
+    /**
+     * Set the metrics receiving evaluations and parsing by this interpreter.
+     * Function calls are reported to metrics of the function manager
+     *
+     * @param metrics New metrics
+     * @see FunctionManager#setMetrics(YuMetrics)
+     */
+    public void setMetrics(YuMetrics metrics) {
+        this.metrics = Objects.requireNonNull(metrics);
+    }
+
+    public YuMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Set the tracer of evaluations by this interpreter
+     *
+     * @param tracer New tracer. null to disable tracing
+     */
+    public void setTracer(YuTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    public YuTracer getTracer() {
+        return tracer;
+    }
+
+    /**
+     * Set the output of 'syso'.
+     * This method should be called when no evaluation is in progress
+     *
+     * @param output New output
+     */
+    public void setOutput(YuOutput output) {
+        this.output = Objects.requireNonNull(output);
+    }
+
+    /**
+     * Get the output of 'syso'. The shared {@link AsyncYuOutput#getDefault()} is used if not set
+     */
+    public YuOutput getOutput() {
+        YuOutput output = this.output;
+        return output != null ? output : AsyncYuOutput.getDefault();
+    }
+
+    /**
+     * Choose how trees and function bodies are evaluated.
+     * When enabled, code blocks are compiled to register programs on first use and run by {@link YuVirtualMachine},
+     * otherwise the tree is walked directly.
+     * This method should be called when no evaluation is in progress
+     *
+     * @param enabled Whether to use the virtual machine
+     */
+    public void setVirtualMachineEnabled(boolean enabled) {
+        virtualMachine = enabled ? new YuVirtualMachine(this) : null;
+    }
+
+    public boolean isVirtualMachineEnabled() {
+        return virtualMachine != null;
+    }
+
+    /**
+     * Parse the code
+     *
+     * @param code Source code
+     * @return The tree
+     */
+    public YuTree parse(String code) {
+        return YuTree.parse(code, metrics);
+    }
+
     public void eval(String code) {
-        eval(new YuTree(new YuTokenizer(code)));
+        eval(parse(code));
     }
 
     public void eval(YuTree tree) {
         eval(tree, new YuContext(getSession()));
     }
 
+    /**
+     * Evaluate the tree on a new context with the async executor
+     *
+     * @param tree Syntax tree
+     * @return Future of the context after evaluation
+     * @see #evalAsync(YuTree, YuContext)
+     */
+    public CompletableFuture<YuContext> evalAsync(YuTree tree) {
+        return evalAsync(tree, new YuContext(getSession()));
+    }
+
+    /**
+     * Evaluate the tree with the async executor.
+     * Cancelling the returned future aborts the evaluation by {@link YuContext#abort()}.
+     *
+     * @param tree    Syntax tree
+     * @param context Context to evaluate on. It must not be used by others until the future completes
+     * @return Future of the context after evaluation
+     */
+    public CompletableFuture<YuContext> evalAsync(YuTree tree, YuContext context) {
+        if (tree == null || context == null) {
+            throw new IllegalArgumentException("argument(s) can not be null");
+        }
+        CompletableFuture<YuContext> future = new CompletableFuture<>();
+        future.whenComplete((result, error) -> {
+            if (error instanceof CancellationException) {
+                context.abort();
+            }
+        });
+        getAsyncExecutor().execute(() -> {
+            if (future.isDone()) {
+                return;
+            }
+            try {
+                eval(tree, context);
+                future.complete(context);
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Evaluate the tree on a pooled context with the async executor, and collect local variables
+     *
+     * @param tree            Syntax tree
+     * @param outputVariables Names of local variables to collect
+     * @return Future of values of the variables
+     * @see #evalAsync(YuTree, YuContext)
+     */
+    public CompletableFuture<Map<String, Object>> evalAsync(YuTree tree, String... outputVariables) {
+        if (tree == null) {
+            throw new IllegalArgumentException("argument(s) can not be null");
+        }
+        YuContext context = YuContext.obtain(getSession());
+        // The context must not be aborted after it is recycled. Whoever finishes last recycles it
+        AtomicInteger state = new AtomicInteger(ASYNC_RUNNING);
+        CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
+        future.whenComplete((result, error) -> {
+            if (error instanceof CancellationException && state.compareAndSet(ASYNC_RUNNING, ASYNC_ABORTING)) {
+                context.abort();
+                if (!state.compareAndSet(ASYNC_ABORTING, ASYNC_ABORTED)) {
+                    // The script finished while aborting
+                    YuContext.recycle(context);
+                }
+            }
+        });
+        getAsyncExecutor().execute(() -> {
+            try {
+                if (!future.isDone()) {
+                    eval(tree, context);
+                    Map<String, Object> outputs = new LinkedHashMap<>();
+                    for (String name : outputVariables) {
+                        outputs.put(name, context.getVariable(YuVariableType.LOCAL, name));
+                    }
+                    future.complete(outputs);
+                }
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            } finally {
+                // The script is not running any more, even if the future was cancelled before
+                if (state.compareAndSet(ASYNC_RUNNING, ASYNC_DONE) || !state.compareAndSet(ASYNC_ABORTING, ASYNC_DONE)) {
+                    YuContext.recycle(context);
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Set the executor used by evalAsync methods.
+     * On a runtime with virtual threads, a virtual-thread-per-task executor can be used.
+     * This method should be called when no evaluation is in progress
+     *
+     * @param asyncExecutor New executor. null to use the common pool
+     */
+    public void setAsyncExecutor(Executor asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    public Executor getAsyncExecutor() {
+        Executor executor = asyncExecutor;
+        return executor == null ? ForkJoinPool.commonPool() : executor;
+    }
+
     public void eval(YuTree tree, YuContext context) {
         if (tree == null || context == null) {
             throw new IllegalArgumentException("argument(s) can not be null");
@@ -82,9 +335,63 @@ public class YuInterpreter implements YuTreeVisitor<Void, YuContext> {
         if (context.getDeclaringInterpreter() != null && context.getDeclaringInterpreter() != this) {
             throw new IllegalArgumentException("bad context:context is using by another interpreter instance");
         }
+        // Keep the session from being evicted while the script runs
+        boolean pinned = context.pinSession();
+        try {
+            evalOnContext(tree, context);
+        } finally {
+            if (pinned) {
+                context.unpinSession();
+            }
+        }
+    }
+
+    private void evalOnContext(YuTree tree, YuContext context) {
+        YuMetrics metrics = this.metrics;
+        YuTracer tracer = this.tracer;
+        YuTrace trace = tracer == null ? null : tracer.startTrace(tree);
+        if (metrics == YuMetrics.NONE && trace == null) {
+            context.setDeclaringInterpreter(this);
+            executeBlock(tree.getRoot(), context);
+            context.setDeclaringInterpreter(null);
+            return;
+        }
+        long start = System.nanoTime();
+        Throwable error = null;
+        YuTrace outerTrace = context.getTrace();
         context.setDeclaringInterpreter(this);
-        tree.getRoot().accept(this, context);
-        context.setDeclaringInterpreter(null);
+        if (trace != null) {
+            context.setTrace(trace);
+            trace.begin("eval");
+        }
+        try {
+            executeBlock(tree.getRoot(), context);
+        } catch (Throwable e) {
+            error = e;
+            throw e;
+        } finally {
+            context.setDeclaringInterpreter(null);
+            if (trace != null) {
+                trace.end(error);
+                context.setTrace(outerTrace);
+            }
+            metrics.onEval(System.nanoTime() - start, error);
+        }
+    }
+
+    /**
+     * Run a code block in current frame, by the virtual machine if it is enabled
+     *
+     * @param codeBlock The code block
+     * @param context   Context to run on
+     */
+    public void executeBlock(YuCodeBlock codeBlock, YuContext context) {
+        YuVirtualMachine vm = virtualMachine;
+        if (vm != null) {
+            vm.execute(codeBlock, context);
+        } else {
+            visitCodeBlock(codeBlock, context);
+        }
     }
 
     @Override
@@ -132,54 +439,20 @@ public class YuInterpreter implements YuTreeVisitor<Void, YuContext> {
         return obj == null ? "null" : String.valueOf(obj);
     }
 
-    private static Long castToLong(Object obj) {
-        if (obj instanceof Number) {
-            return ((Number) obj).longValue();
-        }
-        String strF = stringForm(obj);
-        try {
-            return Long.parseLong(strF);
-        } catch (NumberFormatException e) {
-            return 0L;
-        }
-    }
-
     @Override
     public Void visitForTree(YuForTree tree, YuContext value) {
-        Object left = tree.getDest().getValue(value);
-        Object right = tree.getSrc().getValue(value);
+        ForCursor cursor = new ForCursor(tree, value);
         value.enterLoop();
-        if (castToLong(left) != null && castToLong(right) != null) {
-            long max = castToLong(right);
-            for (long i = castToLong(left); i <= max && !value.isStopFlagSet(); i++) {
-                tree.getCodeBlock().accept(this, value);
-            }
-        } else if (right != null && right.getClass().isArray()) {
-            int length = Array.getLength(right);
-            for (int i = 0; i < length; i++) {
-                if (value.isStopFlagSet()) {
-                    break;
-                }
-                YuValue target = tree.getDest();
-                if (target.getType() == YuValue.TYPE_VAR) {
-                    value.setVariable(target.variableType, target.variableKey, Array.get(right, i));
-                }
-                tree.getCodeBlock().accept(this, value);
-            }
-        } else if (right instanceof Iterable) {
-            Iterable<?> r = (Iterable<?>) right;
-            for (Object val : r) {
-                if (value.isStopFlagSet()) {
-                    break;
-                }
-                YuValue target = tree.getDest();
-                if (target.getType() == YuValue.TYPE_VAR) {
-                    value.setVariable(target.variableType, target.variableKey, val);
-                }
+        Throwable failure = null;
+        try {
+            while (!value.isStopFlagSet() && cursor.next(value)) {
                 tree.getCodeBlock().accept(this, value);
             }
-        } else {
-            System.err.println("Incompatible type for FOR loop");
+        } catch (Throwable e) {
+            failure = e;
+            throw e;
+        } finally {
+            cursor.close(failure);
         }
         value.exitLoop();
         return null;
@@ -275,12 +548,26 @@ public class YuInterpreter implements YuTreeVisitor<Void, YuContext> {
 
     @Override
     public Void visitModuleFunctionCall(YuModuleFunctionCall call, YuContext value) {
-        Function function = call.resolvedFunction;
-        if (function != null) {
-            // Fast call
+        Function function = resolveModuleFunction(call);
+        YuTrace trace = value.getTrace();
+        if (trace == null) {
             invokeFunction(function, call, value);
             return null;
         }
+        trace.begin(call.getModuleName() + "." + call.getFunctionName());
+        Throwable error = null;
+        try {
+            invokeFunction(function, call, value);
+        } catch (Throwable e) {
+            error = e;
+            throw e;
+        } finally {
+            trace.end(error);
+        }
+        return null;
+    }
+
+    private Function resolveModuleFunction(YuModuleFunctionCall call) {
         int resolvedId = call.getResolvedModuleId();
         if (resolvedId == -1) {
             resolvedId = functionManager.getModuleId(call.getModuleName());
@@ -290,29 +577,76 @@ public class YuInterpreter implements YuTreeVisitor<Void, YuContext> {
         if (module == null) {
             throw new YuSyntaxError("module '" + call.getModuleName() + "' not found");
         }
-        function = module.getFunction(call.getFunctionName(), call.arguments.size());
-        if (!invokeFunction(function, call, value)) {
-            function = module.getFunction(call.getFunctionName(), -1);
-            if (invokeFunction(function, call, value)) {
-                call.resolvedFunction = function;
-            } else {
-                throw new Error("can not find target function '" + call.getFunctionName() + "' in module '" + module.getName() + "'");
-            }
-        } else {
-            call.resolvedFunction = function;
+        YuModule.Snapshot snapshot = module.getSnapshot();
+        YuModuleFunctionCall.Binding binding = call.resolvedBinding;
+        if (binding != null && binding.snapshot == snapshot) {
+            // Fast call
+            return binding.function;
         }
-        return null;
+        Function function = snapshot.getFunction(call.getFunctionName(), call.arguments.size());
+        if (function == null) {
+            function = snapshot.getFunction(call.getFunctionName(), -1);
+        }
+        if (function == null) {
+            throw new Error("can not find target function '" + call.getFunctionName() + "' in module '" + module.getName() + "'");
+        }
+        call.resolvedBinding = new YuModuleFunctionCall.Binding(snapshot, function);
+        return function;
     }
 
-    private boolean invokeFunction(Function function, YuFunctionCall call, YuContext value) {
-        if (function != null) {
-            try {
-                function.invoke(call.arguments, call.additionalCodeBlock, value, this);
-            } catch (Throwable e) {
-                throw new Error("Exception occurred in function(custom) call", e);
+    /*
+     * Java frames of this method are repeated for each level of nested script calls,
+     * so tracing and metrics are handled by another method to keep deep recursion possible
+     */
+    private void invokeFunction(Function function, YuFunctionCall call, YuContext value) {
+        if (call.tailCallCandidate && function == value.getCurrentFunction()) {
+            ((YuFunction) function).invokeTailCall(call.arguments, value);
+            return;
+        }
+        if (tracer != null || functionManager.getMetrics() != YuMetrics.NONE) {
+            invokeObserved(function, call, value);
+            return;
+        }
+        try {
+            function.invoke(call.arguments, call.additionalCodeBlock, value, this);
+        } catch (Throwable e) {
+            throw wrapError(function, e);
+        }
+    }
+
+    private void invokeObserved(Function function, YuFunctionCall call, YuContext value) {
+        YuTrace trace = value.getTrace();
+        YuTracer tracer;
+        boolean traced = trace != null && (tracer = this.tracer) != null && tracer.isTracedFunction(function.getName());
+        if (traced) {
+            trace.begin(function.getName());
+        }
+        YuMetrics metrics = functionManager.getMetrics();
+        long start = System.nanoTime();
+        Throwable error = null;
+        Throwable thrown = null;
+        try {
+            function.invoke(call.arguments, call.additionalCodeBlock, value, this);
+        } catch (Throwable e) {
+            error = e;
+            thrown = wrapError(function, e);
+            throw (Error) thrown;
+        } finally {
+            String module = call instanceof YuModuleFunctionCall ? ((YuModuleFunctionCall) call).getModuleName() : null;
+            metrics.onFunctionCall(module, function, System.nanoTime() - start, error);
+            if (traced) {
+                trace.end(thrown);
             }
-            return true;
         }
-        return false;
     }
+
+    private static Error wrapError(Function function, Throwable e) {
+        if (e instanceof YuRuntimeError) {
+            return (YuRuntimeError) e;
+        } else if (e instanceof StackOverflowError) {
+            return new YuRuntimeError("stack overflow in function '" + function.getName() + "'", e);
+        }
+        return new Error("Exception occurred in function(custom) call", e);
+    }
+
 }
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2020 Rose2073
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.rosemoe.yuscript.functions;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import io.github.rosemoe.yuscript.annotation.ScriptMethod;
+
+import static io.github.rosemoe.yuscript.functions.YuMethod.getDouble;
+import static io.github.rosemoe.yuscript.functions.YuMethod.getInt;
+import static io.github.rosemoe.yuscript.functions.YuMethod.getLong;
+
+/**
+ * Built-in functions for {@link ByteBuffer}, for decoding and encoding binary data in scripts.
+ * Typed values are read and written at absolute offsets, so the position and limit of a buffer
+ * are never changed and no bytes are copied. Heap and direct buffers are both supported.
+ * <p>
+ * Type suffixes follow JVM descriptors: b byte, s short, i int, j long, f float, d double.
+ * Suffix u before b, s or i reads the value as unsigned.
+ *
+ * @author Rose
+ */
+@SuppressWarnings("unused")
+public class BufferMethod {
+
+    /**
+     * No instance
+     */
+    private BufferMethod() {
+    }
+
+    /**
+     * Allocate a heap buffer
+     */
+    @ScriptMethod
+    public static ByteBuffer nhc(Object size) {
+        return ByteBuffer.allocate(getInt(size));
+    }
+
+    /**
+     * Allocate a direct buffer
+     */
+    @ScriptMethod
+    public static ByteBuffer nhcd(Object size) {
+        return ByteBuffer.allocateDirect(getInt(size));
+    }
+
+    /**
+     * Wrap a byte array
+     */
+    @ScriptMethod
+    public static ByteBuffer bzhc(Object array) {
+        return ByteBuffer.wrap(getByteArray(array));
+    }
+
+    /**
+     * Wrap part of a byte array. Offset 0 of the result is the given offset in the array
+     */
+    @ScriptMethod
+    public static ByteBuffer bzhc(Object array, Object offset, Object length) {
+        return ByteBuffer.wrap(getByteArray(array), getInt(offset), getInt(length)).slice();
+    }
+
+    /**
+     * Share part of the buffer as a new buffer with the same byte order
+     */
+    @ScriptMethod
+    public static ByteBuffer qphc(Object buf, Object offset, Object length) {
+        ByteBuffer buffer = getBuffer(buf);
+        int start = getInt(offset);
+        ByteBuffer view = buffer.duplicate();
+        view.limit(start + getInt(length)).position(start);
+        return view.slice().order(buffer.order());
+    }
+
+    /**
+     * Get the limit of buffer
+     */
+    @ScriptMethod
+    public static int sghcl(Object buf) {
+        return getBuffer(buf).limit();
+    }
+
+    /**
+     * Set byte order of the buffer. "little" for little endian and anything else for big endian
+     */
+    @ScriptMethod
+    public static void zxhc(Object buf, Object order) {
+        getBuffer(buf).order("little".equals(String.valueOf(order)) ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+    }
+
+    @ScriptMethod
+    public static long sghcb(Object buf, Object offset) {
+        return getBuffer(buf).get(getInt(offset));
+    }
+
+    @ScriptMethod
+    public static long sghcub(Object buf, Object offset) {
+        return getBuffer(buf).get(getInt(offset)) & 0xFFL;
+    }
+
+    @ScriptMethod
+    public static long sghcs(Object buf, Object offset) {
+        return getBuffer(buf).getShort(getInt(offset));
+    }
+
+    @ScriptMethod
+    public static long sghcus(Object buf, Object offset) {
+        return getBuffer(buf).getShort(getInt(offset)) & 0xFFFFL;
+    }
+
+    @ScriptMethod
+    public static long sghci(Object buf, Object offset) {
+        return getBuffer(buf).getInt(getInt(offset));
+    }
+
+    @ScriptMethod
+    public static long sghcui(Object buf, Object offset) {
+        return getBuffer(buf).getInt(getInt(offset)) & 0xFFFFFFFFL;
+    }
+
+    @ScriptMethod
+    public static long sghcj(Object buf, Object offset) {
+        return getBuffer(buf).getLong(getInt(offset));
+    }
+
+    @ScriptMethod
+    public static double sghcf(Object buf, Object offset) {
+        return getBuffer(buf).getFloat(getInt(offset));
+    }
+
+    @ScriptMethod
+    public static double sghcd(Object buf, Object offset) {
+        return getBuffer(buf).getDouble(getInt(offset));
+    }
+
+    @ScriptMethod
+    public static void sshcb(Object buf, Object offset, Object val) {
+        getBuffer(buf).put(getInt(offset), (byte) getLong(val));
+    }
+
+    @ScriptMethod
+    public static void sshcs(Object buf, Object offset, Object val) {
+        getBuffer(buf).putShort(getInt(offset), (short) getLong(val));
+    }
+
+    @ScriptMethod
+    public static void sshci(Object buf, Object offset, Object val) {
+        getBuffer(buf).putInt(getInt(offset), (int) getLong(val));
+    }
+
+    @ScriptMethod
+    public static void sshcj(Object buf, Object offset, Object val) {
+        getBuffer(buf).putLong(getInt(offset), getLong(val));
+    }
+
+    @ScriptMethod
+    public static void sshcf(Object buf, Object offset, Object val) {
+        getBuffer(buf).putFloat(getInt(offset), (float) getDouble(val));
+    }
+
+    @ScriptMethod
+    public static void sshcd(Object buf, Object offset, Object val) {
+        getBuffer(buf).putDouble(getInt(offset), getDouble(val));
+    }
+
+    /**
+     * Compare two buffers by their remaining bytes, like {@link ByteBuffer#compareTo(ByteBuffer)}
+     */
+    @ScriptMethod
+    public static int bjhc(Object a, Object b) {
+        return getBuffer(a).compareTo(getBuffer(b));
+    }
+
+    /**
+     * Compare ranges of two buffers. Bytes are compared as signed values, like {@link ByteBuffer#compareTo(ByteBuffer)}
+     */
+    @ScriptMethod
+    public static int bjhc(Object a, Object aOffset, Object b, Object bOffset, Object length) {
+        ByteBuffer x = getBuffer(a);
+        ByteBuffer y = getBuffer(b);
+        int i = getInt(aOffset);
+        int j = getInt(bOffset);
+        int len = getInt(length);
+        int k = 0;
+        if (x.order() == y.order()) {
+            // Skip equal parts eight bytes at a time
+            while (k + 8 <= len && x.getLong(i + k) == y.getLong(j + k)) {
+                k += 8;
+            }
+        }
+        for (; k < len; k++) {
+            int cmp = Byte.compare(x.get(i + k), y.get(j + k));
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    private static ByteBuffer getBuffer(Object buf) {
+        if (buf instanceof ByteBuffer) {
+            return (ByteBuffer) buf;
+        }
+        throw new IllegalArgumentException("not a buffer:" + buf);
+    }
+
+    private static byte[] getByteArray(Object array) {
+        if (array instanceof byte[]) {
+            return (byte[]) array;
+        }
+        throw new IllegalArgumentException("not a byte array:" + array);
+    }
+
+}
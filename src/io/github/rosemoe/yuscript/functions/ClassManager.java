@@ -15,9 +15,12 @@
  */
 package io.github.rosemoe.yuscript.functions;
 
+import io.github.rosemoe.yuscript.metrics.YuMetrics;
+
 import java.lang.reflect.Array;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
@@ -33,7 +36,14 @@ public class ClassManager {
 
     private final static Map<String, Class<?>> implementationMap;
 
-    private static ClassLoader[] globalLoaders;
+    private static volatile ClassLoader[] globalLoaders;
+
+    /**
+     * Results of {@link #findClass(String)}. Missing classes are cached as {@link NotFound}
+     */
+    private final static Map<String, Class<?>> classCache = new ConcurrentHashMap<>();
+
+    private static volatile YuMetrics metrics = YuMetrics.NONE;
 
     static {
         importedPackages = new CopyOnWriteArrayList<>();
@@ -66,10 +76,33 @@ public class ClassManager {
 
     public static void importPackage(String packageName) {
         importedPackages.add(packageName);
+        clearClassCache();
     }
 
     public static void setClassLoaders(ClassLoader[] loaders) {
         globalLoaders = loaders;
+        clearClassCache();
+    }
+
+    /**
+     * Forget results of previous class lookups.
+     * Call this if a class loader can define classes that were missing before
+     */
+    public static void clearClassCache() {
+        classCache.clear();
+    }
+
+    /**
+     * Set the metrics receiving class lookups
+     *
+     * @param newMetrics New metrics
+     */
+    public static void setMetrics(YuMetrics newMetrics) {
+        metrics = Objects.requireNonNull(newMetrics);
+    }
+
+    public static YuMetrics getMetrics() {
+        return metrics;
     }
 
     public static ClassLoader[] getClassLoaders() {
@@ -78,9 +111,20 @@ public class ClassManager {
 
     public static void setClassImplementation(String className, Class<?> targetClass) {
         implementationMap.put(className, targetClass);
+        clearClassCache();
     }
 
     public static Class<?> findClass(String name) {
+        Class<?> clazz = classCache.get(name);
+        metrics.onClassLookup(clazz != null);
+        if (clazz == null) {
+            clazz = findClassUncached(name);
+            classCache.put(name, clazz == null ? NotFound.class : clazz);
+        }
+        return clazz == NotFound.class ? null : clazz;
+    }
+
+    private static Class<?> findClassUncached(String name) {
         int arrayLayer = 0;
         while (name.endsWith("[]")) {
             arrayLayer++;
@@ -144,4 +188,7 @@ public class ClassManager {
         return result;
     }
 
+    private static final class NotFound {
+    }
+
 }
@@ -17,12 +17,16 @@ package io.github.rosemoe.yuscript.functions;
 
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
 
 import io.github.rosemoe.yuscript.annotation.ScriptMethod;
+import io.github.rosemoe.yuscript.metrics.YuMetrics;
+import io.github.rosemoe.yuscript.tree.YuTree;
 
 /**
  * @author Rose
@@ -50,15 +54,20 @@ public class FunctionManager {
 
     private final List<YuModule> modulePool;
 
+    private final ReentrantLock moduleLock = new ReentrantLock();
+
+    private volatile YuMetrics metrics = YuMetrics.NONE;
+
     /**
      * Create a FunctionManager and add all basic functions
      */
     public FunctionManager() {
-        functionMap = new HashMap<>();
-        modules = new HashMap<>();
-        modulePool = new ArrayList<>();
+        functionMap = new ConcurrentHashMap<>();
+        modules = new ConcurrentHashMap<>();
+        modulePool = new CopyOnWriteArrayList<>();
         try {
             addFunctionsFromClass(YuMethod.class);
+            addFunctionsFromClass(BufferMethod.class);
         } catch (NoSuchMethodException | IllegalAccessException e) {
             e.printStackTrace();
         }
@@ -67,6 +76,23 @@ public class FunctionManager {
         addFunction(Function_s.INSTANCE);
         addFunction(Function_sn.INSTANCE);
         addFunction(Function_syso.INSTANCE);
+        addFunction(Function_pfor.EACH);
+        addFunction(Function_pfor.RANGE);
+        addFunction(Function_pfor.REDUCE_EACH);
+        addFunction(Function_pfor.REDUCE_RANGE);
+    }
+
+    /**
+     * Set the metrics receiving calls of functions and parsing of modules
+     *
+     * @param metrics New metrics
+     */
+    public void setMetrics(YuMetrics metrics) {
+        this.metrics = Objects.requireNonNull(metrics);
+    }
+
+    public YuMetrics getMetrics() {
+        return metrics;
     }
 
     /**
@@ -128,7 +154,7 @@ public class FunctionManager {
      * @param function New function
      */
     public void addFunction(Function function) {
-        functionMap.computeIfAbsent(function.getName(), (name) -> new ArrayList<Function>(4)).add(function);
+        functionMap.computeIfAbsent(function.getName(), (name) -> new CopyOnWriteArrayList<Function>()).add(function);
     }
 
     public Function getFunction(String functionName, int parameterCount) {
@@ -145,16 +171,54 @@ public class FunctionManager {
         return null;
     }
 
+    /**
+     * Add a module or replace the module with the same name.
+     * A replaced module keeps its module id so that resolved calls are still valid.
+     *
+     * @param module The module to add
+     */
     public void addModule(YuModule module) {
-        YuModule old = modules.put(module.getName(), module);
-        if (old == null) {
-            modulePool.add(module);
-            return;
+        moduleLock.lock();
+        try {
+            YuModule old = modules.put(module.getName(), module);
+            if (old == null) {
+                modulePool.add(module);
+                return;
+            }
+            for (int i = 0; i < modulePool.size(); i++) {
+                if (old.getName().equals(modulePool.get(i).getName())) {
+                    modulePool.set(i, module);
+                }
+            }
+        } finally {
+            moduleLock.unlock();
         }
-        for (int i = 0; i < modulePool.size(); i++) {
-            if (old.getName().equals(modulePool.get(i).getName())) {
-                modulePool.set(i, module);
+    }
+
+    /**
+     * Reload functions of the module with the given name from source code.
+     * The module is created if it does not exist.
+     * Calls in progress finish with the old functions.
+     *
+     * @param name Name of module
+     * @param code Source code of module
+     * @return The reloaded module
+     */
+    public YuModule reloadModule(String name, String code) {
+        YuTree tree = YuTree.parse(code, metrics);
+        moduleLock.lock();
+        try {
+            YuModule module = modules.get(name);
+            if (module == null) {
+                module = new YuModule(name);
+                module.reload(tree);
+                addModule(module);
+            } else {
+                module.reload(tree);
             }
+            return module;
+        } finally {
+            moduleLock.unlock();
         }
     }
 
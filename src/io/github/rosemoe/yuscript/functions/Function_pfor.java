@@ -0,0 +1,376 @@
+/*
+ * Copyright 2020 Rose2073
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.rosemoe.yuscript.functions;
+
+import io.github.rosemoe.yuscript.YuContext;
+import io.github.rosemoe.yuscript.YuInterpreter;
+import io.github.rosemoe.yuscript.tree.YuCodeBlock;
+import io.github.rosemoe.yuscript.tree.YuExpression;
+import io.github.rosemoe.yuscript.tree.YuRuntimeError;
+import io.github.rosemoe.yuscript.tree.YuValue;
+import io.github.rosemoe.yuscript.util.ArrayAccess;
+import io.github.rosemoe.yuscript.util.YuMap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Parallel for loop on the interpreter's {@link ForkJoinPool}
+ * <p>
+ * pfor(x, src){...}              for each element of an array, a collection, or 1..src if src is a number
+ * pfor(x, from, to){...}         for each number in from..to
+ * pfor(x, src, v, op, r){...}    same as above, and reduce values of v after each iteration into r
+ * pfor(x, from, to, v, op, r){...}
+ * <p>
+ * The range is split into chunks and each chunk runs on a copy of current context, so local variables
+ * set in the loop body are private to the chunk. Session and global variables are shared.
+ * op is one of "+", "*", "min" and "max". Iterations without value in v are skipped in reduction.
+ * 'break', 'endcode' or aborting the calling context stops remaining iterations as soon as possible,
+ * in no particular order. 'endcode' in the loop body also ends the calling code, as it does in 'for'.
+ *
+ * @author Rose
+ */
+public class Function_pfor implements Function {
+
+    /**
+     * Count of chunks per worker thread of the pool
+     */
+    private final static int CHUNKS_PER_THREAD = 4;
+
+    private final int argumentCount;
+
+    private final boolean range;
+
+    private final boolean reduction;
+
+    private Function_pfor(boolean range, boolean reduction) {
+        this.range = range;
+        this.reduction = reduction;
+        // variable, source and code block
+        argumentCount = 3 + (range ? 1 : 0) + (reduction ? 3 : 0);
+    }
+
+    public final static Function_pfor EACH = new Function_pfor(false, false);
+
+    public final static Function_pfor RANGE = new Function_pfor(true, false);
+
+    public final static Function_pfor REDUCE_EACH = new Function_pfor(false, true);
+
+    public final static Function_pfor REDUCE_RANGE = new Function_pfor(true, true);
+
+    @Override
+    public String getName() {
+        return "pfor";
+    }
+
+    @Override
+    public int getArgumentCount() {
+        return argumentCount;
+    }
+
+    @Override
+    public void invoke(List<YuExpression> arguments, YuCodeBlock additionalCodeBlock, YuContext context, YuInterpreter interpreter) throws Throwable {
+        Source source;
+        int next;
+        if (range) {
+            source = new Source(toLong(arguments.get(1).getValue(context)), toLong(arguments.get(2).getValue(context)));
+            next = 3;
+        } else {
+            source = Source.of(arguments.get(1).getValue(context));
+            next = 2;
+        }
+        YuExpression valueExpr = null;
+        String op = null;
+        if (reduction) {
+            valueExpr = arguments.get(next);
+            op = YuInterpreter.stringForm(arguments.get(next + 1).getValue(context));
+            checkOperator(op);
+        }
+        if (source.size <= 0) {
+            if (reduction) {
+                assign(arguments.get(next + 2), context, null);
+            }
+            return;
+        }
+        ForkJoinPool pool = interpreter.getForkJoinPool();
+        long chunkSize = Math.max(1, source.size / ((long) pool.getParallelism() * CHUNKS_PER_THREAD));
+        Loop loop = new Loop(interpreter, context, additionalCodeBlock, arguments.get(0), valueExpr, op, source, chunkSize);
+        Chunk task = new Chunk(loop, 0, source.size);
+        // Run in the caller if it is already a worker of the pool, so that nested loops do not block workers
+        Object result = ForkJoinTask.getPool() == pool ? task.invoke() : pool.invoke(task);
+        if (loop.ended) {
+            context.setStopFlag(true);
+        }
+        if (reduction) {
+            assign(arguments.get(next + 2), context, result);
+        }
+    }
+
+    private static void assign(YuExpression expression, YuContext context, Object value) {
+        if (expression.operators.size() == 0) {
+            YuValue target = expression.getChildren().get(0);
+            if (target.getType() == YuValue.TYPE_VAR) {
+                context.setVariable(target.variableType, target.variableKey, value);
+            }
+        }
+    }
+
+    private static long toLong(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        try {
+            return Long.parseLong(YuInterpreter.stringForm(value));
+        } catch (NumberFormatException e) {
+            throw new YuRuntimeError("number expected for range of 'pfor' but got " + value);
+        }
+    }
+
+    private static void checkOperator(String op) {
+        switch (op) {
+            case "+":
+            case "*":
+            case "min":
+            case "max":
+                return;
+            default:
+                throw new YuRuntimeError("unknown reduction operator '" + op + "'");
+        }
+    }
+
+    private static boolean isIntegral(Object value) {
+        return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+    }
+
+    /**
+     * Combine two values. Chunks are combined from left to right so that "+" on strings keeps the order
+     */
+    static Object reduce(String op, Object a, Object b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (!(a instanceof Number) || !(b instanceof Number)) {
+            if (op.equals("+")) {
+                return YuInterpreter.stringForm(a) + YuInterpreter.stringForm(b);
+            }
+            throw new YuRuntimeError("numbers expected for reduction '" + op + "' but got " + a + " and " + b);
+        }
+        Number x = (Number) a;
+        Number y = (Number) b;
+        if (isIntegral(a) && isIntegral(b)) {
+            long l = x.longValue(), r = y.longValue();
+            switch (op) {
+                case "+":
+                    return l + r;
+                case "*":
+                    return l * r;
+                case "min":
+                    return Math.min(l, r);
+                default:
+                    return Math.max(l, r);
+            }
+        }
+        double l = x.doubleValue(), r = y.doubleValue();
+        switch (op) {
+            case "+":
+                return l + r;
+            case "*":
+                return l * r;
+            case "min":
+                return Math.min(l, r);
+            default:
+                return Math.max(l, r);
+        }
+    }
+
+    /**
+     * Elements to iterate, addressed by index
+     */
+    private final static class Source {
+
+        final long size;
+
+        final long start;
+
+        final Object array;
+
+        final ArrayAccess access;
+
+        final List<?> list;
+
+        Source(long from, long to) {
+            start = from;
+            size = to >= from ? to - from + 1 : 0;
+            array = null;
+            access = null;
+            list = null;
+        }
+
+        Source(Object array, List<?> list, long size) {
+            start = 0;
+            this.size = size;
+            this.array = array;
+            this.access = array == null ? null : ArrayAccess.of(array);
+            this.list = list;
+        }
+
+        static Source of(Object value) {
+            ArrayAccess access = ArrayAccess.of(value);
+            if (access != null) {
+                return new Source(value, null, access.length(value));
+            }
+            if (value instanceof List && value instanceof RandomAccess) {
+                return new Source(null, (List<?>) value, ((List<?>) value).size());
+            }
+            if (value instanceof Collection) {
+                return new Source(((Collection<?>) value).toArray(), null, ((Collection<?>) value).size());
+            }
+            if (value instanceof YuMap) {
+                Object[] keys = ((YuMap) value).toKeyArray();
+                return new Source(keys, null, keys.length);
+            }
+            if (value instanceof Iterable) {
+                List<Object> elements = new ArrayList<>();
+                for (Object element : (Iterable<?>) value) {
+                    elements.add(element);
+                }
+                return new Source(null, elements, elements.size());
+            }
+            if (value instanceof Number || value instanceof String) {
+                return new Source(1, toLong(value));
+            }
+            throw new YuRuntimeError("Incompatible type for 'pfor': " + (value == null ? "null" : value.getClass().getName()));
+        }
+
+        Object get(long index) {
+            if (array != null) {
+                return access.get(array, (int) index);
+            }
+            if (list != null) {
+                return list.get((int) index);
+            }
+            return start + index;
+        }
+
+    }
+
+    /**
+     * State shared by chunks of a loop
+     */
+    private final static class Loop {
+
+        final YuInterpreter interpreter;
+
+        final YuContext parent;
+
+        final YuCodeBlock body;
+
+        final YuExpression variable;
+
+        final YuExpression value;
+
+        final String op;
+
+        final Source source;
+
+        final long chunkSize;
+
+        final AtomicBoolean stopped = new AtomicBoolean();
+
+        /**
+         * Whether 'endcode' is executed in any chunk
+         */
+        volatile boolean ended;
+
+        Loop(YuInterpreter interpreter, YuContext parent, YuCodeBlock body, YuExpression variable, YuExpression value, String op, Source source, long chunkSize) {
+            this.interpreter = interpreter;
+            this.parent = parent;
+            this.body = body;
+            this.variable = variable;
+            this.value = value;
+            this.op = op;
+            this.source = source;
+            this.chunkSize = chunkSize;
+        }
+
+    }
+
+    @SuppressWarnings("serial")
+    private final static class Chunk extends RecursiveTask<Object> {
+
+        private final Loop loop;
+
+        private final long from;
+
+        private final long to;
+
+        Chunk(Loop loop, long from, long to) {
+            this.loop = loop;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Object compute() {
+            Loop loop = this.loop;
+            if (to - from > loop.chunkSize) {
+                long middle = (from + to) >>> 1;
+                Chunk right = new Chunk(loop, middle, to);
+                right.fork();
+                Object left = new Chunk(loop, from, middle).compute();
+                Object result = right.join();
+                return loop.op == null ? null : reduce(loop.op, left, result);
+            }
+            if (loop.stopped.get()) {
+                return null;
+            }
+            // The caller is blocked until all chunks finish, so its locals are stable while being copied
+            YuContext context = new YuContext(loop.parent);
+            YuInterpreter interpreter = loop.interpreter;
+            Object result = null;
+            context.enterLoop();
+            for (long i = from; i < to && !loop.stopped.get(); i++) {
+                assign(loop.variable, context, loop.source.get(i));
+                if (loop.value != null) {
+                    assign(loop.value, context, null);
+                }
+                interpreter.executeBlock(loop.body, context);
+                if (loop.value != null) {
+                    result = reduce(loop.op, result, loop.value.getValue(context));
+                }
+                if (context.isFrameStopped()) {
+                    loop.ended = true;
+                }
+                if (context.isStopFlagSet() || loop.parent.isAborted()) {
+                    loop.stopped.set(true);
+                }
+            }
+            context.exitLoop();
+            return result;
+        }
+
+    }
+
+}
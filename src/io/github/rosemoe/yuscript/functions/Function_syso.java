@@ -17,16 +17,15 @@ package io.github.rosemoe.yuscript.functions;
 
 import io.github.rosemoe.yuscript.YuContext;
 import io.github.rosemoe.yuscript.YuInterpreter;
+import io.github.rosemoe.yuscript.output.TimestampFormatter;
+import io.github.rosemoe.yuscript.output.YuOutput;
 import io.github.rosemoe.yuscript.tree.YuCodeBlock;
 import io.github.rosemoe.yuscript.tree.YuExpression;
 
-import java.text.SimpleDateFormat;
 import java.util.List;
 
 public class Function_syso implements Function {
 
-    private final static SimpleDateFormat FORMAT = new SimpleDateFormat("HH:mm:ss.SSS");
-
     private Function_syso() {
 
     }
@@ -45,17 +44,21 @@ public class Function_syso implements Function {
 
     @Override
     public void invoke(List<YuExpression> arguments, YuCodeBlock additionalCodeBlock, YuContext context, YuInterpreter interpreter) throws Throwable {
+        YuOutput output = context.getOutput();
+        if (output == null) {
+            output = interpreter.getOutput();
+        }
         for (YuExpression argument : arguments) {
-            System.out.print('[');
-            System.out.print(FORMAT.format(System.currentTimeMillis()));
-            System.out.print(']');
-            System.out.println(argument.getValue(context));
+            output.println(line(argument.getValue(context)));
         }
         if (additionalCodeBlock != null) {
-            System.out.print('[');
-            System.out.print(FORMAT.format(System.currentTimeMillis()));
-            System.out.print(']');
-            System.out.println(additionalCodeBlock);
+            output.println(line(additionalCodeBlock));
         }
     }
+
+    private static String line(Object value) {
+        StringBuilder sb = new StringBuilder(32).append('[');
+        TimestampFormatter.getDefault().formatTo(System.currentTimeMillis(), sb);
+        return sb.append(']').append(value).toString();
+    }
 }
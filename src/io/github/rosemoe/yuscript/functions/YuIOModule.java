@@ -0,0 +1,353 @@
+/*
+ * Copyright 2020 Rose2073
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.rosemoe.yuscript.functions;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import io.github.rosemoe.yuscript.YuContext;
+import io.github.rosemoe.yuscript.YuInterpreter;
+import io.github.rosemoe.yuscript.tree.YuCodeBlock;
+import io.github.rosemoe.yuscript.tree.YuExpression;
+import io.github.rosemoe.yuscript.tree.YuRuntimeError;
+import io.github.rosemoe.yuscript.tree.YuValue;
+
+/**
+ * Module of file functions. All paths are resolved against the sandbox root given on creation,
+ * and paths leading out of the root are rejected.
+ * <p>
+ * Functions, with return value as the last argument:
+ * <ul>
+ *     <li>{@code map(path, buf)} and {@code map(path, offset, length, buf)} map the file read-only.
+ *     The buffer can be used with the buffer built-ins without reading the file into heap</li>
+ *     <li>{@code lines(path, it)} gives lines of a UTF-8 file to a {@code for} loop. Lines are read
+ *     while iterating</li>
+ *     <li>{@code size(path, n)} and {@code exists(path, b)}</li>
+ *     <li>{@code writer(path, w)} opens a buffered writer appending to a UTF-8 file.
+ *     Use {@code write(w, text)}, {@code writeln(w, text)} and {@code close(w)} with it</li>
+ * </ul>
+ *
+ * @author Rose
+ */
+public class YuIOModule extends YuModule {
+
+    private final static int BUFFER_SIZE = 64 * 1024;
+
+    private final Path root;
+
+    private final Path realRoot;
+
+    /**
+     * Create module named 'io'
+     *
+     * @param root Sandbox root
+     * @throws IOException If the root does not exist
+     */
+    public YuIOModule(Path root) throws IOException {
+        this("io", root);
+    }
+
+    /**
+     * @param name Name of module
+     * @param root Sandbox root
+     * @throws IOException If the root does not exist
+     */
+    public YuIOModule(String name, Path root) throws IOException {
+        super(name);
+        this.root = root.toAbsolutePath().normalize();
+        this.realRoot = root.toRealPath();
+        addFunction(new IOFunction("map", 1, true) {
+            @Override
+            Object call(Object[] args) throws IOException {
+                Path path = resolve(args[0]);
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, LinkOption.NOFOLLOW_LINKS)) {
+                    checkOpened(path, channel, args[0]);
+                    long size = channel.size();
+                    if (size > Integer.MAX_VALUE) {
+                        throw new YuRuntimeError("file is too large to map at once, map it by regions:" + path);
+                    }
+                    return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                }
+            }
+        });
+        addFunction(new IOFunction("map", 3, true) {
+            @Override
+            Object call(Object[] args) throws IOException {
+                Path path = resolve(args[0]);
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, LinkOption.NOFOLLOW_LINKS)) {
+                    checkOpened(path, channel, args[0]);
+                    return channel.map(FileChannel.MapMode.READ_ONLY, toLong(args[1]), toLong(args[2]));
+                }
+            }
+        });
+        addFunction(new IOFunction("lines", 1, true) {
+            @Override
+            Object call(Object[] args) {
+                return new Lines(resolve(args[0]));
+            }
+        });
+        addFunction(new IOFunction("size", 1, true) {
+            @Override
+            Object call(Object[] args) throws IOException {
+                return Files.size(resolve(args[0]));
+            }
+        });
+        addFunction(new IOFunction("exists", 1, true) {
+            @Override
+            Object call(Object[] args) {
+                return Files.exists(resolve(args[0]));
+            }
+        });
+        addFunction(new IOFunction("writer", 1, true) {
+            @Override
+            Object call(Object[] args) throws IOException {
+                Path path = resolve(args[0]);
+                Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                        StandardOpenOption.APPEND, StandardOpenOption.WRITE, LinkOption.NOFOLLOW_LINKS);
+                checkOpened(path, writer, args[0]);
+                return new BufferedWriter(writer, BUFFER_SIZE);
+            }
+        });
+        addFunction(new IOFunction("write", 2, false) {
+            @Override
+            Object call(Object[] args) throws IOException {
+                toWriter(args[0]).append(YuInterpreter.stringForm(args[1]));
+                return null;
+            }
+        });
+        addFunction(new IOFunction("writeln", 2, false) {
+            @Override
+            Object call(Object[] args) throws IOException {
+                toWriter(args[0]).append(YuInterpreter.stringForm(args[1])).append('\n');
+                return null;
+            }
+        });
+        addFunction(new IOFunction("close", 1, false) {
+            @Override
+            Object call(Object[] args) throws IOException {
+                toWriter(args[0]).close();
+                return null;
+            }
+        });
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Resolve the path against sandbox root.
+     * Links are resolved from the nearest existing ancestor, so that new files under linked directories
+     * are checked as well. The returned path has no links, and files should be opened with
+     * {@link LinkOption#NOFOLLOW_LINKS} so that it can not be replaced by a link afterwards
+     *
+     * @return The real path
+     * @throws YuRuntimeError If the path leads out of root
+     */
+    public Path resolve(Object path) {
+        Path resolved = root.resolve(YuInterpreter.stringForm(path)).normalize();
+        if (!resolved.startsWith(root)) {
+            throw new YuRuntimeError("path is out of sandbox:" + path);
+        }
+        Path existing = resolved;
+        while (!existing.equals(root) && !Files.exists(existing, LinkOption.NOFOLLOW_LINKS)) {
+            existing = existing.getParent();
+        }
+        Path real;
+        try {
+            real = existing.toRealPath();
+        } catch (IOException e) {
+            // Broken links can not be checked
+            throw new YuRuntimeError("path is out of sandbox:" + path, e);
+        }
+        if (!real.startsWith(realRoot)) {
+            throw new YuRuntimeError("path is out of sandbox:" + path);
+        }
+        return real.resolve(existing.relativize(resolved));
+    }
+
+    /**
+     * Check an opened file again, in case a directory on its path was replaced by a link after resolving
+     */
+    private void checkOpened(Path path, Closeable file, Object name) throws IOException {
+        if (!path.toRealPath().startsWith(realRoot)) {
+            file.close();
+            throw new YuRuntimeError("path is out of sandbox:" + name);
+        }
+    }
+
+    private static long toLong(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return Long.parseLong(YuInterpreter.stringForm(value));
+    }
+
+    private static Writer toWriter(Object value) {
+        if (value instanceof Writer) {
+            return (Writer) value;
+        }
+        throw new IllegalArgumentException("not a writer:" + value);
+    }
+
+    /**
+     * Function taking values of its arguments and optionally setting a return value to the last argument
+     */
+    private abstract static class IOFunction implements Function {
+
+        private final String name;
+
+        private final int parameterCount;
+
+        private final boolean returns;
+
+        IOFunction(String name, int parameterCount, boolean returns) {
+            this.name = name;
+            this.parameterCount = parameterCount;
+            this.returns = returns;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public int getArgumentCount() {
+            return returns ? parameterCount + 1 : parameterCount;
+        }
+
+        abstract Object call(Object[] args) throws IOException;
+
+        @Override
+        public void invoke(List<YuExpression> arguments, YuCodeBlock additionalCodeBlock, YuContext context, YuInterpreter interpreter) throws Throwable {
+            Object[] args = new Object[parameterCount];
+            for (int i = 0; i < parameterCount; i++) {
+                args[i] = arguments.get(i).getValue(context);
+            }
+            Object result = call(args);
+            if (returns) {
+                YuExpression expression = arguments.get(parameterCount);
+                if (expression.getOperators().size() == 0) {
+                    YuValue value = expression.getChildren().get(0);
+                    if (value.getType() == YuValue.TYPE_VAR) {
+                        context.setVariable(value.variableType, value.variableKey, result);
+                    }
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Lines of a file. Each iteration opens the file again and reads lines one by one
+     */
+    public static class Lines implements Iterable<String> {
+
+        private final Path path;
+
+        Lines(Path path) {
+            this.path = path;
+        }
+
+        @Override
+        public LineIterator iterator() {
+            try {
+                return new LineIterator(new InputStreamReader(Files.newInputStream(path, LinkOption.NOFOLLOW_LINKS), StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+    }
+
+    /**
+     * Iterator over lines. The file is closed when all lines are read or when it is closed explicitly.
+     * For loops close it on exit, including {@code break}
+     */
+    public static class LineIterator implements Iterator<String>, AutoCloseable {
+
+        private final BufferedReader reader;
+
+        private String next;
+
+        private boolean closed;
+
+        LineIterator(Reader reader) {
+            this.reader = new BufferedReader(reader, BUFFER_SIZE);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            if (closed) {
+                return false;
+            }
+            try {
+                next = reader.readLine();
+            } catch (IOException e) {
+                close();
+                throw new UncheckedIOException(e);
+            }
+            if (next == null) {
+                close();
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String line = next;
+            next = null;
+            return line;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                try {
+                    reader.close();
+                } catch (IOException ignored) {
+                    // Nothing to do
+                }
+            }
+        }
+
+    }
+
+}
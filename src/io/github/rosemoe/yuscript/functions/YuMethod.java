@@ -20,6 +20,7 @@ import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.text.SimpleDateFormat;
 import java.util.List;
+import java.util.Map;
 
 import io.github.rosemoe.yuscript.YuContext;
 import io.github.rosemoe.yuscript.YuTokens;
@@ -28,6 +29,11 @@ import io.github.rosemoe.yuscript.tree.YuCodeBlock;
 import io.github.rosemoe.yuscript.tree.YuExpression;
 import io.github.rosemoe.yuscript.tree.YuSyntaxError;
 import io.github.rosemoe.yuscript.tree.YuValue;
+import io.github.rosemoe.yuscript.util.ArrayAccess;
+import io.github.rosemoe.yuscript.util.CharSlice;
+import io.github.rosemoe.yuscript.util.PatternCache;
+import io.github.rosemoe.yuscript.util.YuList;
+import io.github.rosemoe.yuscript.util.YuMap;
 
 import static io.github.rosemoe.yuscript.YuInterpreter.*;
 
@@ -58,7 +64,15 @@ public class YuMethod {
 
     @ScriptMethod
     public static int slg(Object obj) {
-        return stringForm(obj).length();
+        return getCharSeq(obj).length();
+    }
+
+    /**
+     * Trim without copying
+     */
+    @ScriptMethod
+    public static CharSlice strimv(Object obj) {
+        return CharSlice.trim(getCharSeq(obj));
     }
 
     public static Long s(YuContext context, YuExpression expr) {
@@ -274,6 +288,10 @@ public class YuMethod {
         if (clazz == CharSequence.class) {
             return getCharSeq(obj);
         }
+        if (obj instanceof CharSlice && (clazz == Object.class || !clazz.isAssignableFrom(CharSlice.class))) {
+            // Views are materialized when handed to Java
+            obj = obj.toString();
+        }
         return clazz.cast(obj);
     }
 
@@ -327,7 +345,7 @@ public class YuMethod {
                 }
                 Method method = clazz.getDeclaredMethod(name, types);
                 method.setAccessible(true);
-                return method.invoke(args[0], arguments);
+                return method.invoke(args[0] instanceof CharSlice ? args[0].toString() : args[0], arguments);
             } else {
                 System.err.println("java():Argument count illegal");
                 return null;
@@ -354,7 +372,7 @@ public class YuMethod {
                 }
                 Method method = clazz.getDeclaredMethod(name, types);
                 method.setAccessible(true);
-                return method.invoke(args[0], arguments);
+                return method.invoke(args[0] instanceof CharSlice ? args[0].toString() : args[0], arguments);
             } else {
                 System.err.println("javax():Argument count illegal");
                 return null;
@@ -419,26 +437,65 @@ public class YuMethod {
         return c.substring(c.indexOf(a) + a.length(), c.indexOf(b));
     }
 
+    /**
+     * Substring without copying
+     */
+    @ScriptMethod
+    public static CharSlice ssgv(Object str, Object p1, Object p2) {
+        return CharSlice.of(getCharSeq(str), getInt(p1), getInt(p2));
+    }
+
+    /**
+     * Text between first occurrences of two strings, without copying
+     */
+    @ScriptMethod
+    public static CharSlice sjv(Object str, Object p1, Object p2) {
+        CharSequence a = getCharSeq(p1);
+        CharSequence b = getCharSeq(p2);
+        CharSequence c = getCharSeq(str);
+        return CharSlice.of(c, CharSlice.indexOf(c, a, 0) + a.length(), CharSlice.indexOf(c, b, 0));
+    }
+
+    /**
+     * Split without copying
+     */
+    @ScriptMethod
+    public static CharSlice[] slv(YuContext context, Object a, YuExpression b) {
+        PatternCache.CompiledPattern pattern = getPattern(context, b);
+        CharSequence text = getCharSeq(a);
+        return pattern.isLiteral() ? CharSlice.split(text, pattern.getRegex()) : CharSlice.split(text, pattern.getPattern());
+    }
+
     @ScriptMethod
     public static String sr(Object str, Object p1, Object p2) {
         String a = getString(p1);
         String b = getString(p2);
         String c = getString(str);
-        return c.replace(a, b);
+        // String#replace compiles a pattern on Java 8
+        return a.isEmpty() ? c.replace(a, b) : PatternCache.replaceLiteral(c, a, b);
     }
 
-    @ScriptMethod
+    /**
+     * Replace with the pattern from the shared cache.
+     * Scripts call the overload that also caches the pattern at the call site
+     */
     public static String sr(Object str, Object p1, Object p2, Object action) {
         if (getBool(action)) {
-            String a = getString(p1);
-            String b = getString(p2);
-            String c = getString(str);
-            return c.replaceAll(a, b);
+            return PatternCache.getDefault().get(getString(p1)).replaceAll(getString(str), getString(p2));
         } else {
             return sr(str, p1, p2);
         }
     }
 
+    @ScriptMethod
+    public static String sr(YuContext context, Object str, YuExpression p1, Object p2, Object action) {
+        if (getBool(action)) {
+            return getPattern(context, p1).replaceAll(getString(str), getString(p2));
+        } else {
+            return sr(str, p1.getValue(context), p2);
+        }
+    }
+
     @ScriptMethod
     public static String ss(Object value) {
         if (value instanceof String) {
@@ -448,36 +505,254 @@ public class YuMethod {
         }
     }
 
-    @ScriptMethod
+    /**
+     * Split with the pattern from the shared cache.
+     * Scripts call the overload that also caches the pattern at the call site
+     */
     public static String[] sl(Object a, Object b) {
-        return getString(a).split(getString(b));
+        return PatternCache.getDefault().get(getString(b)).split(getString(a));
+    }
+
+    @ScriptMethod
+    public static String[] sl(YuContext context, Object a, YuExpression b) {
+        return getPattern(context, b).split(getString(a));
     }
 
     @ScriptMethod
     public static int sgszl(Object array) {
-        try {
-            return Array.getLength(array);
-        } catch (Exception e) {
-            return -1;
-        }
+        ArrayAccess access = ArrayAccess.of(array);
+        return access == null ? -1 : access.length(array);
     }
 
     @ScriptMethod
     public static Object sgsz(Object array, Object pos) {
+        ArrayAccess access = ArrayAccess.of(array);
+        if (access == null) {
+            return null;
+        }
         try {
-            return Array.get(array, getInt(pos));
-        } catch (Exception e) {
+            return access.get(array, getInt(pos));
+        } catch (ArrayIndexOutOfBoundsException e) {
             return null;
         }
     }
 
     @ScriptMethod
     public static void sssz(Object array, Object pos, Object val) {
-        if (array.getClass().isArray()) {
-            Array.set(array, getInt(val), val);
-        } else {
-            throw new IllegalArgumentException();
+        getArrayAccess(array).set(array, getInt(pos), val);
+    }
+
+    /**
+     * Fill the array with the value
+     */
+    @ScriptMethod
+    public static void tcsz(Object array, Object val) {
+        ArrayAccess access = getArrayAccess(array);
+        access.fill(array, 0, access.length(array), val);
+    }
+
+    /**
+     * Fill range [from, to) of the array with the value
+     */
+    @ScriptMethod
+    public static void tcsz(Object array, Object from, Object to, Object val) {
+        getArrayAccess(array).fill(array, getInt(from), getInt(to), val);
+    }
+
+    /**
+     * Copy elements between arrays of the same type
+     */
+    @ScriptMethod
+    public static void fzsz(Object src, Object srcPos, Object dest, Object destPos, Object length) {
+        System.arraycopy(src, getInt(srcPos), dest, getInt(destPos), getInt(length));
+    }
+
+    /**
+     * Sum of the array
+     */
+    @ScriptMethod
+    public static Object qhsz(Object array) {
+        ArrayAccess access = getArrayAccess(array);
+        return access.sum(array, 0, access.length(array));
+    }
+
+    /**
+     * Min element of the array
+     */
+    @ScriptMethod
+    public static Object zxsz(Object array) {
+        ArrayAccess access = getArrayAccess(array);
+        return access.min(array, 0, access.length(array));
+    }
+
+    /**
+     * Max element of the array
+     */
+    @ScriptMethod
+    public static Object zdsz(Object array) {
+        ArrayAccess access = getArrayAccess(array);
+        return access.max(array, 0, access.length(array));
+    }
+
+    /**
+     * Sort the array in ascending order
+     */
+    @ScriptMethod
+    public static void pxsz(Object array) {
+        ArrayAccess access = getArrayAccess(array);
+        access.sort(array, 0, access.length(array));
+    }
+
+    /**
+     * Sort range [from, to) of the array in ascending order
+     */
+    @ScriptMethod
+    public static void pxsz(Object array, Object from, Object to) {
+        getArrayAccess(array).sort(array, getInt(from), getInt(to));
+    }
+
+    /**
+     * Binary search in a sorted array
+     */
+    @ScriptMethod
+    public static int czsz(Object array, Object key) {
+        ArrayAccess access = getArrayAccess(array);
+        return access.binarySearch(array, 0, access.length(array), key);
+    }
+
+    /**
+     * Create a new list
+     */
+    @ScriptMethod
+    public static YuList nlb() {
+        return new YuList();
+    }
+
+    @ScriptMethod
+    public static int sglbl(Object list) {
+        return getList(list).size();
+    }
+
+    @ScriptMethod
+    public static Object sglb(Object list, Object pos) {
+        return getList(list).get(getInt(pos));
+    }
+
+    @ScriptMethod
+    public static void sslb(Object list, Object pos, Object val) {
+        getList(list).set(getInt(pos), val);
+    }
+
+    /**
+     * Append the value to the list
+     */
+    @ScriptMethod
+    public static void tjlb(Object list, Object val) {
+        getList(list).add(val);
+    }
+
+    /**
+     * Insert the value at the position
+     */
+    @ScriptMethod
+    public static void tjlb(Object list, Object pos, Object val) {
+        getList(list).add(getInt(pos), val);
+    }
+
+    /**
+     * Remove and return the element at the position
+     */
+    @ScriptMethod
+    public static Object sclb(Object list, Object pos) {
+        return getList(list).remove(getInt(pos));
+    }
+
+    @ScriptMethod
+    public static void qklb(Object list) {
+        getList(list).clear();
+    }
+
+    /**
+     * Create a new map
+     */
+    @ScriptMethod
+    public static YuMap nys() {
+        return new YuMap();
+    }
+
+    @ScriptMethod
+    public static int sgysl(Object map) {
+        return getMap(map).size();
+    }
+
+    @ScriptMethod
+    public static Object sgys(Object map, Object key) {
+        return getMap(map).get(key);
+    }
+
+    @ScriptMethod
+    public static void ssys(Object map, Object key, Object val) {
+        getMap(map).put(key, val);
+    }
+
+    /**
+     * Check whether the map contains the key
+     */
+    @ScriptMethod
+    public static boolean bhys(Object map, Object key) {
+        return getMap(map).containsKey(key);
+    }
+
+    /**
+     * Remove the key and return its value
+     */
+    @ScriptMethod
+    public static Object scys(Object map, Object key) {
+        return getMap(map).remove(key);
+    }
+
+    @ScriptMethod
+    public static void qkys(Object map) {
+        getMap(map).clear();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> getList(Object list) {
+        if (list instanceof List) {
+            return (List<Object>) list;
+        }
+        throw new IllegalArgumentException("not a list:" + list);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<Object, Object> getMap(Object map) {
+        if (map instanceof Map) {
+            return (Map<Object, Object>) map;
+        }
+        throw new IllegalArgumentException("not a map:" + map);
+    }
+
+    private static ArrayAccess getArrayAccess(Object array) {
+        ArrayAccess access = ArrayAccess.of(array);
+        if (access == null) {
+            throw new IllegalArgumentException("not an array:" + array);
         }
+        return access;
+    }
+
+    /**
+     * Get compiled pattern of the argument. Constant patterns are cached on the call site
+     */
+    private static PatternCache.CompiledPattern getPattern(YuContext context, YuExpression expr) {
+        Object cached = expr.callSiteCache;
+        if (cached instanceof PatternCache.CompiledPattern) {
+            return (PatternCache.CompiledPattern) cached;
+        }
+        PatternCache.CompiledPattern pattern = PatternCache.getDefault().get(getString(expr.getValue(context)));
+        if (expr.isConstant()) {
+            expr.callSiteCache = pattern;
+        }
+        return pattern;
     }
 
     private static boolean getBool(Object p) {
@@ -516,7 +791,11 @@ public class YuMethod {
         }
     }
 
-    private static int getInt(Object p) {
+    /*
+     * Numeric conversions are shared with other built-in method classes of this package
+     */
+
+    static int getInt(Object p) {
         if (p == null) {
             return 0;
         } else if (p instanceof Number) {
@@ -526,5 +805,25 @@ public class YuMethod {
         }
     }
 
+    static long getLong(Object p) {
+        if (p == null) {
+            return 0;
+        } else if (p instanceof Number) {
+            return ((Number) p).longValue();
+        } else {
+            return Long.parseLong(p instanceof String ? (String) p : p.toString());
+        }
+    }
+
+    static double getDouble(Object p) {
+        if (p == null) {
+            return 0;
+        } else if (p instanceof Number) {
+            return ((Number) p).doubleValue();
+        } else {
+            return Double.parseDouble(p instanceof String ? (String) p : p.toString());
+        }
+    }
+
 
 }
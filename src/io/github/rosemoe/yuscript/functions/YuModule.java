@@ -15,15 +15,23 @@
  */
 package io.github.rosemoe.yuscript.functions;
 
+import io.github.rosemoe.yuscript.tree.YuTokenizer;
 import io.github.rosemoe.yuscript.tree.YuTree;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A module is just like 'myu' file.
  * Modules are able to have its functions in a isolated place and can be invoked anywhere with module name.
  * Name of a module should be determined when the module is being created.
- * But functions in module can be changed at any time as long as there is no request to modify the function map concurrently.
+ * Functions of a module are published as an immutable {@link Snapshot}. Every modification creates a new
+ * snapshot and swaps it in atomically, so modules can be changed or reloaded while scripts are running.
+ * Calls that have already started keep running the functions they resolved from the old snapshot.
  *
  * @author Rose
  */
@@ -31,39 +39,167 @@ public class YuModule {
 
     private final String name;
 
-    private final Map<String, List<Function>> functionMap;
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    private volatile long sourceLastModified = -1;
 
     public YuModule(String name) {
         this.name = Objects.requireNonNull(name);
-        functionMap = new HashMap<>();
     }
 
     public String getName() {
         return name;
     }
 
+    /**
+     * Get current snapshot of this module's functions
+     *
+     * @return Current snapshot
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
     public void addTree(YuTree tree) {
-        for (Function function : tree.getRoot().getFunctions()) {
-            addFunction(function);
+        writeLock.lock();
+        try {
+            Map<String, List<Function>> functionMap = snapshot.copyFunctionMap();
+            for (Function function : tree.getRoot().getFunctions()) {
+                put(functionMap, function);
+            }
+            publish(functionMap);
+        } finally {
+            writeLock.unlock();
         }
     }
 
     public void addFunction(Function function) {
-        functionMap.computeIfAbsent(function.getName(), (name) -> new ArrayList<>(4)).add(function);
+        writeLock.lock();
+        try {
+            Map<String, List<Function>> functionMap = snapshot.copyFunctionMap();
+            put(functionMap, function);
+            publish(functionMap);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Replace all functions in this module with functions defined in the given tree
+     *
+     * @param tree The new tree
+     */
+    public void reload(YuTree tree) {
+        Map<String, List<Function>> functionMap = new HashMap<>();
+        for (Function function : tree.getRoot().getFunctions()) {
+            put(functionMap, function);
+        }
+        writeLock.lock();
+        try {
+            publish(functionMap);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Replace all functions in this module with functions defined in the given code.
+     * If the code can not be parsed, the old functions are kept.
+     *
+     * @param code Source code of module
+     */
+    public void reload(String code) {
+        reload(new YuTree(new YuTokenizer(code)));
+    }
+
+    /**
+     * Replace all functions in this module with functions defined in the given file
+     *
+     * @param file Source file of module in UTF-8
+     * @throws IOException If the file can not be read
+     */
+    public void reload(File file) throws IOException {
+        long lastModified = file.lastModified();
+        reload(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        sourceLastModified = lastModified;
+    }
+
+    /**
+     * Reload this module from the given file if it is modified since last reload from file
+     *
+     * @param file Source file of module in UTF-8
+     * @return Whether the module is reloaded
+     * @throws IOException If the file can not be read
+     */
+    public boolean reloadIfModified(File file) throws IOException {
+        if (file.lastModified() == sourceLastModified) {
+            return false;
+        }
+        reload(file);
+        return true;
     }
 
     public Function getFunction(String functionName, int parameterCount) {
-        List<Function> functions = functionMap.get(functionName);
-        if (functions == null) {
+        return snapshot.getFunction(functionName, parameterCount);
+    }
+
+    private static void put(Map<String, List<Function>> functionMap, Function function) {
+        functionMap.computeIfAbsent(function.getName(), (name) -> new ArrayList<>(4)).add(function);
+    }
+
+    private void publish(Map<String, List<Function>> functionMap) {
+        snapshot = new Snapshot(functionMap, snapshot.version + 1);
+    }
+
+    /**
+     * Immutable function table of a module at some point
+     */
+    public static final class Snapshot {
+
+        private final static Snapshot EMPTY = new Snapshot(Collections.emptyMap(), 0);
+
+        private final Map<String, Function[]> functionMap;
+
+        private final int version;
+
+        private Snapshot(Map<String, List<Function>> functions, int version) {
+            functionMap = new HashMap<>();
+            for (Map.Entry<String, List<Function>> entry : functions.entrySet()) {
+                functionMap.put(entry.getKey(), entry.getValue().toArray(new Function[0]));
+            }
+            this.version = version;
+        }
+
+        /**
+         * @return the version
+         */
+        public int getVersion() {
+            return version;
+        }
+
+        public Function getFunction(String functionName, int parameterCount) {
+            Function[] functions = functionMap.get(functionName);
+            if (functions == null) {
+                return null;
+            }
+            for (Function function : functions) {
+                if (function.getArgumentCount() == parameterCount) {
+                    return function;
+                }
+            }
             return null;
         }
-        int size = functions.size();
-        for (int i = 0; i < size; i++) {
-            if (functions.get(i).getArgumentCount() == parameterCount) {
-                return functions.get(i);
+
+        private Map<String, List<Function>> copyFunctionMap() {
+            Map<String, List<Function>> copy = new HashMap<>();
+            for (Map.Entry<String, Function[]> entry : functionMap.entrySet()) {
+                copy.put(entry.getKey(), new ArrayList<>(Arrays.asList(entry.getValue())));
             }
+            return copy;
         }
-        return null;
+
     }
 
 }
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2020 Rose2073
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.rosemoe.yuscript.ir;
+
+import java.io.BufferedReader;
+import java.io.Reader;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.BaseStream;
+
+import io.github.rosemoe.yuscript.YuContext;
+import io.github.rosemoe.yuscript.YuFrame;
+import io.github.rosemoe.yuscript.YuInterpreter;
+import io.github.rosemoe.yuscript.tree.YuForTree;
+import io.github.rosemoe.yuscript.tree.YuRuntimeError;
+import io.github.rosemoe.yuscript.tree.YuValue;
+import io.github.rosemoe.yuscript.tree.YuVariableType;
+import io.github.rosemoe.yuscript.util.ArrayAccess;
+import io.github.rosemoe.yuscript.util.YuList;
+import io.github.rosemoe.yuscript.util.YuMap;
+
+/**
+ * State of a running for loop.
+ * Both {@link YuInterpreter#visitForTree(YuForTree, YuContext)} and {@link YuVirtualMachine} iterate
+ * sources with it, so that the two paths accept the same sources.
+ *
+ * @author Rose
+ */
+public final class ForCursor {
+
+    private final static int ARRAY = 0, LIST = 1, KEYS = 2, ITERATOR = 3, RANGE = 4, NONE = 5;
+
+    final ForCursor outer;
+
+    private final int kind;
+
+    private final Object source;
+
+    private ArrayAccess access;
+
+    private Object[] keys;
+
+    private Iterator<?> iterator;
+
+    private long index;
+
+    private long end;
+
+    private final int variableType;
+
+    private final int slot;
+
+    private final String variableKey;
+
+    /**
+     * Evaluate source of the loop and prepare to iterate it
+     *
+     * @param tree    The for loop
+     * @param context Context to evaluate in
+     */
+    public ForCursor(YuForTree tree, YuContext context) {
+        this(tree, context, null);
+    }
+
+    ForCursor(YuForTree tree, YuContext context, ForCursor outer) {
+        this.outer = outer;
+        YuValue dest = tree.getDest();
+        Object left = dest.getValue(context);
+        Object right = tree.getSrc().getValue(context);
+        source = right;
+        if (dest.getType() == YuValue.TYPE_VAR) {
+            variableType = dest.variableType;
+            variableKey = dest.variableKey;
+            slot = variableType == YuVariableType.LOCAL ? YuFrame.slotOf(variableKey) : -1;
+        } else {
+            variableType = -1;
+            variableKey = null;
+            slot = -1;
+        }
+        if ((access = ArrayAccess.of(right)) != null) {
+            kind = ARRAY;
+            end = access.length(right);
+        } else if (right instanceof YuList) {
+            kind = LIST;
+        } else if (right instanceof YuMap) {
+            // Keys are copied so that the map can be modified in the loop
+            kind = KEYS;
+            keys = ((YuMap) right).toKeyArray();
+            end = keys.length;
+        } else if ((iterator = iteratorOf(right)) != null) {
+            kind = ITERATOR;
+        } else if (castToLong(left) != null && castToLong(right) != null) {
+            kind = RANGE;
+            index = castToLong(left);
+            end = castToLong(right);
+        } else {
+            kind = NONE;
+            System.err.println("Incompatible type for FOR loop");
+        }
+    }
+
+    /**
+     * Move to next element and assign it to the variable
+     *
+     * @return False if there is no more element
+     */
+    public boolean next(YuContext context) {
+        Object element;
+        switch (kind) {
+            case ARRAY:
+                if (index >= end) {
+                    return false;
+                }
+                element = access.get(source, (int) index++);
+                break;
+            case LIST:
+                YuList list = (YuList) source;
+                if (index >= list.size()) {
+                    return false;
+                }
+                element = list.get((int) index++);
+                break;
+            case KEYS:
+                if (index >= end) {
+                    return false;
+                }
+                element = keys[(int) index++];
+                break;
+            case ITERATOR:
+                if (!iterator.hasNext()) {
+                    return false;
+                }
+                element = iterator.next();
+                break;
+            case RANGE:
+                // Loop variable is not assigned for ranges
+                return index++ <= end;
+            default:
+                return false;
+        }
+        if (variableKey != null) {
+            if (variableType == YuVariableType.LOCAL) {
+                context.setLocal(slot, variableKey, element);
+            } else {
+                context.setVariable(variableType, variableKey, element);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Close the source if it holds resources
+     *
+     * @param failure Exception leaving the loop, or null. Errors in closing are added to it as suppressed
+     */
+    public void close(Throwable failure) {
+        if (kind == ITERATOR) {
+            Iterator<?> it = iterator;
+            if (it != null) {
+                iterator = null;
+                closeSource(source, it, failure);
+            }
+        }
+    }
+
+    private static Long castToLong(Object obj) {
+        if (obj instanceof Number) {
+            return ((Number) obj).longValue();
+        }
+        String strF = YuInterpreter.stringForm(obj);
+        try {
+            return Long.parseLong(strF);
+        } catch (NumberFormatException e) {
+            return 0L;
+        }
+    }
+
+    /**
+     * Get a lazy iterator for sources of for loop
+     *
+     * @return The iterator, or null if the source can not be iterated
+     */
+    private static Iterator<?> iteratorOf(Object src) {
+        if (src instanceof Iterable) {
+            return ((Iterable<?>) src).iterator();
+        } else if (src instanceof Iterator) {
+            return (Iterator<?>) src;
+        } else if (src instanceof BaseStream) {
+            return ((BaseStream<?, ?>) src).iterator();
+        } else if (src instanceof Spliterator) {
+            return Spliterators.iterator((Spliterator<?>) src);
+        } else if (src instanceof BufferedReader) {
+            return ((BufferedReader) src).lines().iterator();
+        } else if (src instanceof Reader) {
+            return new BufferedReader((Reader) src).lines().iterator();
+        }
+        return null;
+    }
+
+    /**
+     * Close the source and its iterator if they hold resources.
+     * Iterables are not closed because they can be iterated again
+     *
+     * @param failure Exception thrown by the loop, or null. Errors in closing are added to it as suppressed
+     *                exceptions instead of replacing it
+     */
+    private static void closeSource(Object src, Iterator<?> iterator, Throwable failure) {
+        Exception error = null;
+        if (iterator instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) iterator).close();
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+        if (src instanceof AutoCloseable && !(src instanceof Iterable)) {
+            try {
+                ((AutoCloseable) src).close();
+            } catch (Exception e) {
+                if (error == null) {
+                    error = e;
+                } else {
+                    error.addSuppressed(e);
+                }
+            }
+        }
+        if (error == null) {
+            return;
+        }
+        if (failure != null) {
+            failure.addSuppressed(error);
+            return;
+        }
+        throw new YuRuntimeError("failed to close source of for loop", error);
+    }
+
+}
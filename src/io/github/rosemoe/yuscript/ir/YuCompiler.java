@@ -0,0 +1,462 @@
+/*
+ * Copyright 2020 Rose2073
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.rosemoe.yuscript.ir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.github.rosemoe.yuscript.YuFrame;
+import io.github.rosemoe.yuscript.YuTokens;
+import io.github.rosemoe.yuscript.tree.*;
+
+import static io.github.rosemoe.yuscript.ir.YuOpcodes.*;
+
+/**
+ * Compile syntax trees to {@link YuProgram}.
+ * Statements are flattened to register instructions with jumps, while function calls and expressions
+ * that can not be flattened keep referring to their nodes.
+ * Single letter local variables are used as registers directly, and common patterns such as
+ * {@code s(i+1,i)} and {@code f(i <= n)} are compiled to superinstructions
+ *
+ * @author Rose
+ */
+public final class YuCompiler {
+
+    private int[] code = new int[64];
+
+    private int length;
+
+    private final List<Object> constants = new ArrayList<>();
+
+    private final Map<Object, Integer> valueIndexes = new HashMap<>();
+
+    private final List<Loop> loops = new ArrayList<>();
+
+    private int scopeDepth;
+
+    private int tempTop = YuFrame.FAST_SLOT_COUNT;
+
+    private int registerCount = YuFrame.FAST_SLOT_COUNT;
+
+    private YuCompiler() {
+    }
+
+    public static YuProgram compile(YuTree tree) {
+        return compile(tree.getRoot());
+    }
+
+    /**
+     * Compile a code block as top level code of a frame
+     *
+     * @param codeBlock The code block
+     * @return The program
+     */
+    public static YuProgram compile(YuCodeBlock codeBlock) {
+        YuCompiler compiler = new YuCompiler();
+        compiler.compileBlock(codeBlock);
+        compiler.emit(HALT);
+        return new YuProgram(Arrays.copyOf(compiler.code, compiler.length), compiler.constants.toArray(), compiler.registerCount);
+    }
+
+    private static class Loop {
+
+        final int scopeDepth;
+
+        final List<Integer> breakJumps = new ArrayList<>(2);
+
+        Loop(int scopeDepth) {
+            this.scopeDepth = scopeDepth;
+        }
+
+    }
+
+    private void compileBlock(YuCodeBlock codeBlock) {
+        boolean hasFunctionDefs = codeBlock.getFunctions().size() > 0;
+        if (hasFunctionDefs) {
+            emit(PUSH_SCOPE, node(codeBlock));
+            scopeDepth++;
+        }
+        List<YuNode> nodes = codeBlock.getChildren();
+        for (int i = 0; i < nodes.size(); i++) {
+            compileStatement(nodes.get(i));
+        }
+        if (hasFunctionDefs) {
+            emit(POP_SCOPE);
+            scopeDepth--;
+        }
+    }
+
+    private void compileStatement(YuNode node) {
+        if (node instanceof YuAssignment) {
+            compileAssignment((YuAssignment) node);
+        } else if (node instanceof YuModuleFunctionCall) {
+            emit(MODULE_CALL, node(node));
+            emitCheckStop();
+        } else if (node instanceof YuFunctionCall) {
+            if (!compileIncrement((YuFunctionCall) node)) {
+                emit(CALL, node(node));
+            }
+            emitCheckStop();
+        } else if (node instanceof YuIfTree) {
+            compileIf((YuIfTree) node);
+        } else if (node instanceof YuWhileTree) {
+            compileWhile((YuWhileTree) node);
+        } else if (node instanceof YuForTree) {
+            compileFor((YuForTree) node);
+        } else if (node instanceof YuBreak) {
+            compileBreak();
+        } else if (node instanceof YuEndcode) {
+            emit(ENDCODE);
+        } else if (node instanceof YuCodeBlock) {
+            compileBlock((YuCodeBlock) node);
+        } else {
+            emit(EXEC, node(node));
+            emitCheckStop();
+        }
+    }
+
+    private void compileAssignment(YuAssignment assign) {
+        int slot = assign.getVariableType() == YuVariableType.LOCAL ? YuFrame.slotOf(assign.getVariableName()) : -1;
+        int value = compileValue(assign.getValue(), slot);
+        if (slot >= 0) {
+            if (value != slot) {
+                emit(MOVE, slot, value);
+            }
+        } else {
+            emit(STORE_VAR, value, assign.getVariableType(), value(assign.getVariableName()));
+        }
+        tempTop = YuFrame.FAST_SLOT_COUNT;
+    }
+
+    /**
+     * Compile {@code s(x+n,y)} and {@code s(x-n,y)} to INC, where x and y are registers
+     *
+     * @return False if the call does not match
+     */
+    private boolean compileIncrement(YuFunctionCall call) {
+        if (!"s".equals(call.getFunctionName()) || call.getArguments().size() != 2 || call.getAdditionalCodeBlock() != null) {
+            return false;
+        }
+        YuExpression expr = call.getArguments().get(0);
+        YuExpression target = call.getArguments().get(1);
+        if (expr.getOperators().size() != 1 || target.getOperators().size() != 0) {
+            return false;
+        }
+        YuTokens operator = expr.getOperators().get(0);
+        YuValue source = simpleValue(expr.getChildren().get(0));
+        YuValue amount = simpleValue(expr.getChildren().get(1));
+        YuValue dest = target.getChildren().get(0);
+        int sourceSlot = registerOf(source);
+        int destSlot = registerOf(dest);
+        if ((operator != YuTokens.PLUS && operator != YuTokens.MINUS) || sourceSlot < 0 || destSlot < 0
+                || amount == null || amount.getType() != YuValue.TYPE_NUM) {
+            return false;
+        }
+        long delta = operator == YuTokens.PLUS ? amount.getNumber() : -amount.getNumber();
+        if (delta != (int) delta) {
+            return false;
+        }
+        emit(INC, destSlot, sourceSlot, (int) delta, node(call));
+        return true;
+    }
+
+    private void compileIf(YuIfTree tree) {
+        List<Integer> falseJumps = compileCondition(tree.getCondition());
+        compileBlock(tree.getCodeBlock());
+        YuCodeBlock fallback = tree.getFallbackCodeBlock();
+        if (fallback == null) {
+            patch(falseJumps, length);
+        } else {
+            int endJump = emitJump(JUMP);
+            patch(falseJumps, length);
+            compileBlock(fallback);
+            patch(endJump, length);
+        }
+    }
+
+    private void compileWhile(YuWhileTree tree) {
+        emit(ENTER_LOOP);
+        Loop loop = new Loop(scopeDepth);
+        int start = length;
+        List<Integer> exitJumps = compileCondition(tree.getCondition());
+        loops.add(loop);
+        emitCheckStop();
+        compileBlock(tree.getCodeBlock());
+        emit(JUMP, start);
+        loops.remove(loops.size() - 1);
+        patch(exitJumps, length);
+        patch(loop.breakJumps, length);
+        emit(EXIT_LOOP);
+    }
+
+    private void compileFor(YuForTree tree) {
+        emit(FOR_INIT, node(tree));
+        emit(ENTER_LOOP);
+        Loop loop = new Loop(scopeDepth);
+        loops.add(loop);
+        int start = length;
+        emitCheckStop();
+        int exitJump = emitJump(FOR_NEXT);
+        compileBlock(tree.getCodeBlock());
+        emit(JUMP, start);
+        loops.remove(loops.size() - 1);
+        patch(exitJump, length);
+        patch(loop.breakJumps, length);
+        emit(EXIT_LOOP);
+        emit(FOR_END);
+    }
+
+    private void compileBreak() {
+        if (loops.isEmpty()) {
+            emit(BREAK_OUTER);
+            return;
+        }
+        Loop loop = loops.get(loops.size() - 1);
+        for (int i = loop.scopeDepth; i < scopeDepth; i++) {
+            emit(POP_SCOPE);
+        }
+        loop.breakJumps.add(emitJump(JUMP));
+    }
+
+    /**
+     * Compile jumps for a conditional expression. The code following them runs when it is true
+     *
+     * @return Positions of jump targets to patch with the location to go when it is false
+     */
+    private List<Integer> compileCondition(YuConditionalExpression expr) {
+        List<YuCondition> conditions = expr.getChildren();
+        List<YuTokens> operators = expr.getOperators();
+        List<Integer> falseJumps = new ArrayList<>(conditions.size());
+        List<Integer> trueJumps = new ArrayList<>(0);
+        for (int i = 0; i < conditions.size(); i++) {
+            YuCondition condition = conditions.get(i);
+            int k = node(condition);
+            if (i < operators.size() && operators.get(i) == YuTokens.OROR) {
+                emit(JUMP_IF_TRUE, k, -1);
+                trueJumps.add(length - 1);
+            } else {
+                int opcode = compareOpcodeOf(condition);
+                if (opcode != -1) {
+                    emit(opcode, compareOperand(condition.getLeft()), compareOperand(condition.getRight()), k, -1);
+                } else {
+                    emit(JUMP_IF_FALSE, k, -1);
+                }
+                falseJumps.add(length - 1);
+            }
+        }
+        patch(trueJumps, length);
+        return falseJumps;
+    }
+
+    /**
+     * Get the compare-and-branch opcode for a condition comparing registers and literals
+     *
+     * @return The opcode, or -1 if the condition should be evaluated by itself
+     */
+    @SuppressWarnings("incomplete-switch")
+    private static int compareOpcodeOf(YuCondition condition) {
+        if (condition.getOperator() == null || compareOperandOf(condition.getLeft()) == null
+                || compareOperandOf(condition.getRight()) == null) {
+            return -1;
+        }
+        switch (condition.getOperator()) {
+            case LT:
+                return JUMP_IF_NOT_LT;
+            case LTEQ:
+                return JUMP_IF_NOT_LE;
+            case GT:
+                return JUMP_IF_NOT_GT;
+            case GTEQ:
+                return JUMP_IF_NOT_GE;
+            case EQEQ:
+                return JUMP_IF_NOT_EQ;
+            case NOTEQ:
+                return JUMP_IF_NOT_NE;
+        }
+        return -1;
+    }
+
+    private static YuValue compareOperandOf(YuExpression expr) {
+        if (expr.getOperators().size() != 0) {
+            return null;
+        }
+        YuValue value = simpleValue(expr);
+        if (value == null || (value.getType() != YuValue.TYPE_NUM && value.getType() != YuValue.TYPE_STR && registerOf(value) < 0)) {
+            return null;
+        }
+        return value;
+    }
+
+    private int compareOperand(YuExpression expr) {
+        YuValue value = simpleValue(expr);
+        int register = registerOf(value);
+        if (register >= 0) {
+            return register;
+        }
+        return ~value(value.getType() == YuValue.TYPE_NUM ? value.getNumber() : value.getString());
+    }
+
+    /**
+     * Unwrap expressions with a single value
+     *
+     * @return The value, or null if it is an expression with operators
+     */
+    private static YuValue simpleValue(YuValue value) {
+        while (value instanceof YuExpression) {
+            YuExpression expr = (YuExpression) value;
+            if (expr.getOperators().size() != 0) {
+                return null;
+            }
+            value = expr.getChildren().get(0);
+        }
+        return value;
+    }
+
+    /**
+     * @return Register of a single letter local variable, or -1
+     */
+    private static int registerOf(YuValue value) {
+        if (value == null || value instanceof YuExpression || value.getType() != YuValue.TYPE_VAR
+                || value.variableType != YuVariableType.LOCAL) {
+            return -1;
+        }
+        return YuFrame.slotOf(value.variableKey);
+    }
+
+    /**
+     * Compile a value
+     *
+     * @param value The value
+     * @param dst   Preferred register for the result, or -1
+     * @return Value operand of the result
+     */
+    private int compileValue(YuValue value, int dst) {
+        if (value instanceof YuExpression) {
+            YuExpression expr = (YuExpression) value;
+            List<YuValue> children = expr.getChildren();
+            List<YuTokens> operators = expr.getOperators();
+            if (operators.isEmpty()) {
+                return compileValue(children.get(0), dst);
+            }
+            for (int i = 0; i < operators.size(); i++) {
+                if (operators.get(i) != YuTokens.PLUS) {
+                    // Fails when it runs, as the tree walker does
+                    int result = dst >= 0 ? dst : allocTemp();
+                    emit(EVAL, result, node(expr));
+                    return result;
+                }
+            }
+            int base = tempTop;
+            int[] operands = new int[children.size()];
+            for (int i = 0; i < operands.length; i++) {
+                operands[i] = compileValue(children.get(i), -1);
+            }
+            // Operands are all read before the result is written
+            tempTop = base;
+            int result = dst >= 0 ? dst : allocTemp();
+            if (operands.length == 2) {
+                emit(CONCAT2, result, operands[0], operands[1]);
+            } else {
+                emit(CONCAT, result, operands.length);
+                emit(operands);
+            }
+            return result;
+        }
+        switch (value.getType()) {
+            case YuValue.TYPE_VAR:
+                int register = registerOf(value);
+                if (register >= 0) {
+                    return register;
+                }
+                int result = dst >= 0 ? dst : allocTemp();
+                emit(LOAD_VAR, result, value.variableType, value(value.variableKey));
+                return result;
+            case YuValue.TYPE_NUM:
+                return ~value(value.getNumber());
+            case YuValue.TYPE_STR:
+                return ~value(value.getString());
+            case YuValue.TYPE_BOOL:
+                return ~value(value.getBool());
+            case YuValue.TYPE_NULL:
+                return ~value(null);
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    private int allocTemp() {
+        int register = tempTop++;
+        registerCount = Math.max(registerCount, tempTop);
+        return register;
+    }
+
+    private void emitCheckStop() {
+        if (loops.isEmpty()) {
+            emit(CHECK_STOP, -1, 0);
+        } else {
+            Loop loop = loops.get(loops.size() - 1);
+            emit(CHECK_STOP, -1, scopeDepth - loop.scopeDepth);
+            loop.breakJumps.add(length - 2);
+        }
+    }
+
+    /**
+     * Emit a jump instruction whose target is patched later
+     *
+     * @return Position of the target
+     */
+    private int emitJump(int opcode) {
+        emit(opcode, -1);
+        return length - 1;
+    }
+
+    private void patch(int position, int target) {
+        code[position] = target;
+    }
+
+    private void patch(List<Integer> positions, int target) {
+        for (int position : positions) {
+            code[position] = target;
+        }
+    }
+
+    private int node(YuNode node) {
+        constants.add(node);
+        return constants.size() - 1;
+    }
+
+    private int value(Object value) {
+        Integer index = valueIndexes.get(value);
+        if (index == null) {
+            constants.add(value);
+            index = constants.size() - 1;
+            valueIndexes.put(value, index);
+        }
+        return index;
+    }
+
+    private void emit(int... ints) {
+        if (length + ints.length > code.length) {
+            code = Arrays.copyOf(code, Math.max(code.length << 1, length + ints.length));
+        }
+        System.arraycopy(ints, 0, code, length, ints.length);
+        length += ints.length;
+    }
+
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2020 Rose2073
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.rosemoe.yuscript.ir;
+
+import io.github.rosemoe.yuscript.YuFrame;
+
+/**
+ * Opcodes of {@link YuProgram}.
+ * An instruction is an opcode followed by its operands in the code array.
+ * <p>
+ * Registers 0 to {@link YuFrame#FAST_SLOT_COUNT} - 1 are the single letter local variables of the frame,
+ * and registers after them are temporaries of the running program.
+ * Operands named 'value' are a register if they are not negative, or a constant whose index is
+ * the bitwise complement of the operand.
+ * Operands named 'k' are indexes in the constant pool, and jump targets are indexes in the code array
+ *
+ * @author Rose
+ */
+public final class YuOpcodes {
+
+    /**
+     * Copy value to register. Operands: dst, value
+     */
+    public final static int MOVE = 0;
+
+    /**
+     * Load variable which is not in a register. Operands: dst, variable type, k(name)
+     */
+    public final static int LOAD_VAR = 1;
+
+    /**
+     * Store to variable which is not in a register. Operands: value, variable type, k(name)
+     */
+    public final static int STORE_VAR = 2;
+
+    /**
+     * Join text of values. Operands: dst, count, value...
+     */
+    public final static int CONCAT = 3;
+
+    /**
+     * Join text of two values, mostly for assignments like {@code s x = "..." + y}. Operands: dst, value, value
+     */
+    public final static int CONCAT2 = 4;
+
+    /**
+     * Evaluate an expression which is not flattened. Operands: dst, k(expression)
+     */
+    public final static int EVAL = 5;
+
+    /**
+     * Inline form of {@code s(x+n,y)}. The call is made if 's' is not the built-in one or x is not a Long,
+     * otherwise the CHECK_STOP following this is skipped. Operands: dst, value, n, k(call)
+     */
+    public final static int INC = 6;
+
+    /**
+     * Call a function. Operands: k(call)
+     */
+    public final static int CALL = 7;
+
+    /**
+     * Call a function of module. Operands: k(call)
+     */
+    public final static int MODULE_CALL = 8;
+
+    /**
+     * Run a statement by the tree walking interpreter. Operands: k(node)
+     */
+    public final static int EXEC = 9;
+
+    /**
+     * Jump if the condition is false. Operands: k(condition), target
+     */
+    public final static int JUMP_IF_FALSE = 10;
+
+    /**
+     * Jump if the condition is true. Operands: k(condition), target
+     */
+    public final static int JUMP_IF_TRUE = 11;
+
+    /**
+     * Compare and jump if the result is false. Values that are not both Long are compared by the condition.
+     * Operands: value, value, k(condition), target
+     */
+    public final static int JUMP_IF_NOT_LT = 12, JUMP_IF_NOT_LE = 13, JUMP_IF_NOT_GT = 14,
+            JUMP_IF_NOT_GE = 15, JUMP_IF_NOT_EQ = 16, JUMP_IF_NOT_NE = 17;
+
+    /**
+     * Operands: target
+     */
+    public final static int JUMP = 18;
+
+    /**
+     * Stop if the frame is stopped, or pop scopes and jump if the loop is broken.
+     * Operands: target(-1 if not in loop), count of scopes to pop
+     */
+    public final static int CHECK_STOP = 19;
+
+    public final static int ENTER_LOOP = 20;
+
+    public final static int EXIT_LOOP = 21;
+
+    /**
+     * Evaluate source of a for loop and open its cursor. Operands: k(for tree)
+     */
+    public final static int FOR_INIT = 22;
+
+    /**
+     * Move cursor of innermost for loop, or jump if it is exhausted. Operands: target
+     */
+    public final static int FOR_NEXT = 23;
+
+    /**
+     * Close cursor of innermost for loop
+     */
+    public final static int FOR_END = 24;
+
+    /**
+     * Push function search scope. Operands: k(code block)
+     */
+    public final static int PUSH_SCOPE = 25;
+
+    public final static int POP_SCOPE = 26;
+
+    /**
+     * 'break' outside loops of the program. Break the loop the program runs in, such as a 'pfor' body,
+     * and stop. Fail if there is none
+     */
+    public final static int BREAK_OUTER = 27;
+
+    /**
+     * Set stop flag and stop
+     */
+    public final static int ENDCODE = 28;
+
+    public final static int HALT = 29;
+
+    private final static String[] NAMES = {
+            "MOVE", "LOAD_VAR", "STORE_VAR", "CONCAT", "CONCAT2", "EVAL", "INC", "CALL",
+            "MODULE_CALL", "EXEC", "JUMP_IF_FALSE", "JUMP_IF_TRUE", "JUMP_IF_NOT_LT", "JUMP_IF_NOT_LE",
+            "JUMP_IF_NOT_GT", "JUMP_IF_NOT_GE", "JUMP_IF_NOT_EQ", "JUMP_IF_NOT_NE", "JUMP", "CHECK_STOP",
+            "ENTER_LOOP", "EXIT_LOOP", "FOR_INIT", "FOR_NEXT", "FOR_END", "PUSH_SCOPE", "POP_SCOPE",
+            "BREAK_OUTER", "ENDCODE", "HALT"
+    };
+
+    /**
+     * Kinds of operands: 'r' register, 'v' value, 'k' constant, 't' variable type, 'n' number,
+     * 'j' jump target and '*' values counted by the previous operand
+     */
+    private final static String[] FORMATS = {
+            "rv", "rtk", "vtk", "rn*", "rvv", "rk", "rvnk", "k",
+            "k", "k", "kj", "kj", "vvkj", "vvkj",
+            "vvkj", "vvkj", "vvkj", "vvkj", "j", "jn",
+            "", "", "k", "j", "", "k", "",
+            "", "", ""
+    };
+
+    private YuOpcodes() {
+    }
+
+    public static String nameOf(int opcode) {
+        return NAMES[opcode];
+    }
+
+    /**
+     * Get kinds of operands of the opcode, one character for each operand
+     */
+    static String formatOf(int opcode) {
+        return FORMATS[opcode];
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2020 Rose2073
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.rosemoe.yuscript.ir;
+
+import io.github.rosemoe.yuscript.YuFrame;
+import io.github.rosemoe.yuscript.tree.YuFunctionCall;
+import io.github.rosemoe.yuscript.tree.YuModuleFunctionCall;
+
+/**
+ * Register based program compiled by {@link YuCompiler}.
+ * Instructions are stored in a single int array, and the nodes and values they refer to
+ * are stored in the constant pool.
+ * A program is immutable and can be run by several threads at the same time
+ *
+ * @author Rose
+ * @see YuOpcodes
+ */
+public final class YuProgram {
+
+    private final int[] code;
+
+    private final Object[] constants;
+
+    private final int registerCount;
+
+    YuProgram(int[] code, Object[] constants, int registerCount) {
+        this.code = code;
+        this.constants = constants;
+        this.registerCount = registerCount;
+    }
+
+    int[] code() {
+        return code;
+    }
+
+    Object[] constants() {
+        return constants;
+    }
+
+    /**
+     * @return Count of ints in code
+     */
+    public int getCodeLength() {
+        return code.length;
+    }
+
+    public int getConstantCount() {
+        return constants.length;
+    }
+
+    /**
+     * @return Count of registers, including the local variable slots
+     */
+    public int getRegisterCount() {
+        return registerCount;
+    }
+
+    /**
+     * Get readable text of instructions
+     */
+    public String disassemble() {
+        StringBuilder sb = new StringBuilder();
+        int pc = 0;
+        while (pc < code.length) {
+            int opcode = code[pc];
+            String format = YuOpcodes.formatOf(opcode);
+            sb.append(pc).append(": ").append(YuOpcodes.nameOf(opcode));
+            int index = pc + 1;
+            for (int i = 0; i < format.length(); i++) {
+                char kind = format.charAt(i);
+                if (kind == '*') {
+                    for (int count = code[index - 1]; count > 0; count--) {
+                        sb.append(' ').append(valueName(code[index++]));
+                    }
+                    continue;
+                }
+                int operand = code[index++];
+                switch (kind) {
+                    case 'r':
+                        sb.append(' ').append(registerName(operand));
+                        break;
+                    case 'v':
+                        sb.append(' ').append(valueName(operand));
+                        break;
+                    case 'k':
+                        sb.append(' ').append(describe(constants[operand]));
+                        break;
+                    default:
+                        sb.append(' ').append(operand);
+                }
+            }
+            sb.append('\n');
+            pc = index;
+        }
+        return sb.toString();
+    }
+
+    private String valueName(int operand) {
+        return operand < 0 ? describe(constants[~operand]) : registerName(operand);
+    }
+
+    private static String registerName(int register) {
+        if (register < YuFrame.FAST_SLOT_COUNT) {
+            return String.valueOf((char) ('a' + register));
+        }
+        return "%" + (register - YuFrame.FAST_SLOT_COUNT);
+    }
+
+    private static String describe(Object constant) {
+        if (constant instanceof YuModuleFunctionCall) {
+            YuModuleFunctionCall call = (YuModuleFunctionCall) constant;
+            return call.getModuleName() + "." + call.getFunctionName() + "()";
+        } else if (constant instanceof YuFunctionCall) {
+            return ((YuFunctionCall) constant).getFunctionName() + "()";
+        } else if (constant instanceof String) {
+            return "\"" + constant + "\"";
+        } else if (constant == null || constant instanceof Number || constant instanceof Boolean) {
+            return String.valueOf(constant);
+        }
+        return "<" + constant.getClass().getSimpleName() + ">";
+    }
+
+    @Override
+    public String toString() {
+        return "YuProgram{codeLength=" + code.length + ", constants=" + constants.length + ", registers=" + registerCount + "}";
+    }
+
+}
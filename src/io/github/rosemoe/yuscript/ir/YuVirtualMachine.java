@@ -0,0 +1,359 @@
+/*
+ * Copyright 2020 Rose2073
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.rosemoe.yuscript.ir;
+
+import java.util.Objects;
+
+import io.github.rosemoe.yuscript.YuContext;
+import io.github.rosemoe.yuscript.YuFrame;
+import io.github.rosemoe.yuscript.YuInterpreter;
+import io.github.rosemoe.yuscript.functions.Function_s;
+import io.github.rosemoe.yuscript.metrics.YuMetrics;
+import io.github.rosemoe.yuscript.tree.YuCodeBlock;
+import io.github.rosemoe.yuscript.tree.YuCondition;
+import io.github.rosemoe.yuscript.tree.YuExpression;
+import io.github.rosemoe.yuscript.tree.YuForTree;
+import io.github.rosemoe.yuscript.tree.YuFunctionCall;
+import io.github.rosemoe.yuscript.tree.YuModuleFunctionCall;
+import io.github.rosemoe.yuscript.tree.YuNode;
+import io.github.rosemoe.yuscript.tree.YuSyntaxError;
+
+import static io.github.rosemoe.yuscript.ir.YuOpcodes.*;
+
+/**
+ * Register based virtual machine running {@link YuProgram} by a dispatch loop.
+ * Function calls are made through the interpreter, so functions, modules, metrics and tracing
+ * behave the same as in the tree walking interpreter
+ *
+ * @author Rose
+ */
+public final class YuVirtualMachine {
+
+    private final YuInterpreter interpreter;
+
+    public YuVirtualMachine(YuInterpreter interpreter) {
+        this.interpreter = Objects.requireNonNull(interpreter);
+    }
+
+    public YuInterpreter getInterpreter() {
+        return interpreter;
+    }
+
+    /**
+     * Run the program as top level code on the context, like {@link YuInterpreter#eval(io.github.rosemoe.yuscript.tree.YuTree, YuContext)}
+     *
+     * @param program The program
+     * @param context Context to run on
+     */
+    public void run(YuProgram program, YuContext context) {
+        if (program == null || context == null) {
+            throw new IllegalArgumentException("argument(s) can not be null");
+        }
+        if (context.getDeclaringInterpreter() != null && context.getDeclaringInterpreter() != interpreter) {
+            throw new IllegalArgumentException("bad context:context is using by another interpreter instance");
+        }
+        context.setDeclaringInterpreter(interpreter);
+        execute(program, context);
+        context.setDeclaringInterpreter(null);
+    }
+
+    /**
+     * Run a code block in current frame of the context.
+     * The code block is compiled on first use, and the program is kept by it
+     *
+     * @param codeBlock The code block
+     * @param context   Context to run on
+     */
+    public void execute(YuCodeBlock codeBlock, YuContext context) {
+        YuProgram program = codeBlock.getCompiledProgram();
+        if (program == null) {
+            // Programs are immutable, so compiling twice in different threads is harmless
+            program = YuCompiler.compile(codeBlock);
+            codeBlock.setCompiledProgram(program);
+        }
+        execute(program, context);
+    }
+
+    /**
+     * Run the program in current frame of the context
+     *
+     * @param program The program
+     * @param context Context to run on
+     */
+    public void execute(YuProgram program, YuContext context) {
+        if (context.isFrameStopped()) {
+            return;
+        }
+        final int[] code = program.code();
+        final Object[] constants = program.constants();
+        final YuInterpreter interpreter = this.interpreter;
+        final Object[] locals = context.getFastLocals();
+        final int registerCount = program.getRegisterCount();
+        final Object[] temps = registerCount > YuFrame.FAST_SLOT_COUNT ? context.takeRegisters(registerCount) : null;
+        // Increments are made inline only if calls are not observed
+        final boolean inlineCalls = interpreter.getFunctionManager().getMetrics() == YuMetrics.NONE && context.getTrace() == null;
+        int pc = 0;
+        int loopDepth = 0;
+        int scopeDepth = 0;
+        ForCursor cursor = null;
+        Throwable failure = null;
+        try {
+            dispatch:
+            for (; ; ) {
+                switch (code[pc]) {
+                    case MOVE: {
+                        int dst = code[pc + 1];
+                        Object value = read(code[pc + 2], locals, temps, constants);
+                        if (dst < YuFrame.FAST_SLOT_COUNT) {
+                            locals[dst] = value;
+                        } else {
+                            temps[dst] = value;
+                        }
+                        pc += 3;
+                        break;
+                    }
+                    case LOAD_VAR:
+                        write(code[pc + 1], context.getVariable(code[pc + 2], (String) constants[code[pc + 3]]), locals, temps);
+                        pc += 4;
+                        break;
+                    case STORE_VAR:
+                        context.setVariable(code[pc + 2], (String) constants[code[pc + 3]], read(code[pc + 1], locals, temps, constants));
+                        pc += 4;
+                        break;
+                    case CONCAT: {
+                        int count = code[pc + 2];
+                        StringBuilder sb = new StringBuilder();
+                        for (int i = 0; i < count; i++) {
+                            append(sb, read(code[pc + 3 + i], locals, temps, constants));
+                        }
+                        write(code[pc + 1], sb.toString(), locals, temps);
+                        pc += 3 + count;
+                        break;
+                    }
+                    case CONCAT2:
+                        write(code[pc + 1], concat(read(code[pc + 2], locals, temps, constants), read(code[pc + 3], locals, temps, constants)), locals, temps);
+                        pc += 4;
+                        break;
+                    case EVAL:
+                        write(code[pc + 1], ((YuExpression) constants[code[pc + 2]]).getValue(context), locals, temps);
+                        pc += 3;
+                        break;
+                    case INC: {
+                        YuFunctionCall call = (YuFunctionCall) constants[code[pc + 4]];
+                        Object value = locals[code[pc + 2]];
+                        if (inlineCalls && value instanceof Long && call.resolvedFunction == Function_s.INSTANCE) {
+                            locals[code[pc + 1]] = (Long) value + code[pc + 3];
+                            // Skip the CHECK_STOP after this
+                            pc += 8;
+                        } else {
+                            interpreter.visitFunctionCall(call, context);
+                            pc += 5;
+                        }
+                        break;
+                    }
+                    case CALL:
+                        interpreter.visitFunctionCall((YuFunctionCall) constants[code[pc + 1]], context);
+                        pc += 2;
+                        break;
+                    case MODULE_CALL:
+                        interpreter.visitModuleFunctionCall((YuModuleFunctionCall) constants[code[pc + 1]], context);
+                        pc += 2;
+                        break;
+                    case EXEC:
+                        ((YuNode) constants[code[pc + 1]]).accept(interpreter, context);
+                        pc += 2;
+                        break;
+                    case JUMP_IF_FALSE:
+                        pc = ((YuCondition) constants[code[pc + 1]]).getValue(context) ? pc + 3 : code[pc + 2];
+                        break;
+                    case JUMP_IF_TRUE:
+                        pc = ((YuCondition) constants[code[pc + 1]]).getValue(context) ? code[pc + 2] : pc + 3;
+                        break;
+                    case JUMP_IF_NOT_LT:
+                    case JUMP_IF_NOT_LE:
+                    case JUMP_IF_NOT_GT:
+                    case JUMP_IF_NOT_GE:
+                    case JUMP_IF_NOT_EQ:
+                    case JUMP_IF_NOT_NE: {
+                        Object left = read(code[pc + 1], locals, temps, constants);
+                        Object right = read(code[pc + 2], locals, temps, constants);
+                        boolean result;
+                        if (left instanceof Long && right instanceof Long) {
+                            result = compare(code[pc], (Long) left, (Long) right);
+                        } else if (left instanceof String && right instanceof String && code[pc] >= JUMP_IF_NOT_EQ) {
+                            result = left.equals(right) == (code[pc] == JUMP_IF_NOT_EQ);
+                        } else {
+                            result = ((YuCondition) constants[code[pc + 3]]).getValue(context);
+                        }
+                        pc = result ? pc + 5 : code[pc + 4];
+                        break;
+                    }
+                    case JUMP:
+                        pc = code[pc + 1];
+                        break;
+                    case CHECK_STOP:
+                        if (context.isStopFlagSet()) {
+                            if (context.isFrameStopped() || code[pc + 1] < 0) {
+                                break dispatch;
+                            }
+                            // Loop is broken by code not compiled, such as code blocks run by functions
+                            for (int i = code[pc + 2]; i > 0; i--) {
+                                context.popFunctionSearchScope();
+                                scopeDepth--;
+                            }
+                            pc = code[pc + 1];
+                        } else {
+                            pc += 3;
+                        }
+                        break;
+                    case ENTER_LOOP:
+                        context.enterLoop();
+                        loopDepth++;
+                        pc++;
+                        break;
+                    case EXIT_LOOP:
+                        context.exitLoop();
+                        loopDepth--;
+                        pc++;
+                        break;
+                    case FOR_INIT:
+                        cursor = new ForCursor((YuForTree) constants[code[pc + 1]], context, cursor);
+                        pc += 2;
+                        break;
+                    case FOR_NEXT:
+                        pc = cursor.next(context) ? pc + 2 : code[pc + 1];
+                        break;
+                    case FOR_END:
+                        cursor.close(null);
+                        cursor = cursor.outer;
+                        pc++;
+                        break;
+                    case PUSH_SCOPE:
+                        context.pushFunctionSearchScope((YuCodeBlock) constants[code[pc + 1]]);
+                        scopeDepth++;
+                        pc += 2;
+                        break;
+                    case POP_SCOPE:
+                        context.popFunctionSearchScope();
+                        scopeDepth--;
+                        pc++;
+                        break;
+                    case BREAK_OUTER:
+                        if (!context.isInLoop()) {
+                            throw new YuSyntaxError("trying to break loop outside a loop");
+                        }
+                        context.loopBreak();
+                        break dispatch;
+                    case ENDCODE:
+                        context.setStopFlag(true);
+                        break dispatch;
+                    case HALT:
+                        break dispatch;
+                    default:
+                        throw new IllegalStateException("bad opcode " + code[pc] + " at " + pc);
+                }
+            }
+            // Leave loops and scopes that are still open when the frame is stopped
+            for (; loopDepth > 0; loopDepth--) {
+                context.exitLoop();
+            }
+            for (; scopeDepth > 0; scopeDepth--) {
+                context.popFunctionSearchScope();
+            }
+        } catch (Throwable e) {
+            failure = e;
+            throw e;
+        } finally {
+            closeCursors(cursor, failure);
+            if (temps != null) {
+                context.releaseRegisters(temps, registerCount);
+            }
+        }
+    }
+
+    /**
+     * Close loops left by an exception or 'endcode'
+     */
+    private static void closeCursors(ForCursor cursor, Throwable failure) {
+        RuntimeException error = null;
+        for (; cursor != null; cursor = cursor.outer) {
+            try {
+                cursor.close(error == null ? failure : error);
+            } catch (RuntimeException e) {
+                // Close outer loops as well, adding their errors to this one
+                error = e;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private static Object read(int operand, Object[] locals, Object[] temps, Object[] constants) {
+        if (operand >= YuFrame.FAST_SLOT_COUNT) {
+            return temps[operand];
+        }
+        return operand >= 0 ? locals[operand] : constants[~operand];
+    }
+
+    private static void write(int register, Object value, Object[] locals, Object[] temps) {
+        if (register < YuFrame.FAST_SLOT_COUNT) {
+            locals[register] = value;
+        } else {
+            temps[register] = value;
+        }
+    }
+
+    /**
+     * Compare in the same way as {@link YuCondition#getValue(YuContext)} does for Long values
+     */
+    private static boolean compare(int opcode, long left, long right) {
+        switch (opcode) {
+            case JUMP_IF_NOT_LT:
+                return (double) left < (double) right;
+            case JUMP_IF_NOT_LE:
+                return left <= right;
+            case JUMP_IF_NOT_GT:
+                return (double) left > (double) right;
+            case JUMP_IF_NOT_GE:
+                return (double) left >= (double) right;
+            case JUMP_IF_NOT_EQ:
+                return left == right;
+            default:
+                return left != right;
+        }
+    }
+
+    private static Object concat(Object left, Object right) {
+        if (left instanceof String && right instanceof String) {
+            return ((String) left).concat((String) right);
+        }
+        StringBuilder sb = new StringBuilder();
+        append(sb, left);
+        append(sb, right);
+        return sb.toString();
+    }
+
+    private static void append(StringBuilder sb, Object value) {
+        if (value instanceof CharSequence) {
+            // Copy characters of views directly, as YuExpression does
+            sb.append((CharSequence) value);
+        } else {
+            sb.append(value);
+        }
+    }
+
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2020 Rose2073
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.rosemoe.yuscript.metrics;
+
+import io.github.rosemoe.yuscript.functions.Function;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics kept in memory with {@link LongAdder} counters and {@link LatencyHistogram}s.
+ * Values can be read at any time, for example by an adapter exporting them periodically.
+ * Times are in nanoseconds.
+ * Function statistics are kept by module, name and argument count, so reloading a module continues
+ * the statistics of its functions instead of adding new entries.
+ *
+ * @author Rose
+ */
+public class DefaultYuMetrics implements YuMetrics {
+
+    private final LatencyHistogram evalTime = new LatencyHistogram();
+
+    private final LongAdder evalErrorCount = new LongAdder();
+
+    private final LatencyHistogram parseTime = new LatencyHistogram();
+
+    private final LongAdder parseErrorCount = new LongAdder();
+
+    private final Map<FunctionKey, FunctionStats> functionStats = new ConcurrentHashMap<>();
+
+    private final LongAdder contextPoolHitCount = new LongAdder();
+
+    private final LongAdder contextPoolMissCount = new LongAdder();
+
+    private final LongAdder classCacheHitCount = new LongAdder();
+
+    private final LongAdder classCacheMissCount = new LongAdder();
+
+    @Override
+    public void onEval(long nanos, Throwable error) {
+        evalTime.record(nanos);
+        if (error != null) {
+            evalErrorCount.increment();
+        }
+    }
+
+    @Override
+    public void onParse(long nanos, int length, Throwable error) {
+        parseTime.record(nanos);
+        if (error != null) {
+            parseErrorCount.increment();
+        }
+    }
+
+    @Override
+    public void onFunctionCall(Function function, long nanos, Throwable error) {
+        onFunctionCall(null, function, nanos, error);
+    }
+
+    @Override
+    public void onFunctionCall(String module, Function function, long nanos, Throwable error) {
+        FunctionKey key = new FunctionKey(module, function.getName(), function.getArgumentCount());
+        FunctionStats stats = functionStats.get(key);
+        if (stats == null) {
+            stats = functionStats.computeIfAbsent(key, (k) -> new FunctionStats(function));
+        } else if (stats.function != function) {
+            // Module is reloaded
+            stats.function = function;
+        }
+        stats.time.record(nanos);
+        if (error != null) {
+            stats.errorCount.increment();
+        }
+    }
+
+    @Override
+    public void onContextObtained(boolean hit) {
+        (hit ? contextPoolHitCount : contextPoolMissCount).increment();
+    }
+
+    @Override
+    public void onClassLookup(boolean hit) {
+        (hit ? classCacheHitCount : classCacheMissCount).increment();
+    }
+
+    /**
+     * @return Histogram of evaluation time. Its count is the eval count
+     */
+    public LatencyHistogram getEvalTime() {
+        return evalTime;
+    }
+
+    public long getEvalErrorCount() {
+        return evalErrorCount.sum();
+    }
+
+    /**
+     * @return Histogram of parse time. Its count is the parse count
+     */
+    public LatencyHistogram getParseTime() {
+        return parseTime;
+    }
+
+    public long getParseErrorCount() {
+        return parseErrorCount.sum();
+    }
+
+    /**
+     * @return Unmodifiable view of statistics of called functions
+     */
+    public Map<FunctionKey, FunctionStats> getFunctionStats() {
+        return Collections.unmodifiableMap(functionStats);
+    }
+
+    public long getContextPoolHitCount() {
+        return contextPoolHitCount.sum();
+    }
+
+    public long getContextPoolMissCount() {
+        return contextPoolMissCount.sum();
+    }
+
+    public long getClassCacheHitCount() {
+        return classCacheHitCount.sum();
+    }
+
+    public long getClassCacheMissCount() {
+        return classCacheMissCount.sum();
+    }
+
+    /**
+     * Clear all values
+     */
+    public void reset() {
+        evalTime.reset();
+        evalErrorCount.reset();
+        parseTime.reset();
+        parseErrorCount.reset();
+        functionStats.clear();
+        contextPoolHitCount.reset();
+        contextPoolMissCount.reset();
+        classCacheHitCount.reset();
+        classCacheMissCount.reset();
+    }
+
+    /**
+     * Identity of a function across module reloads
+     */
+    public static final class FunctionKey {
+
+        private final String module;
+
+        private final String name;
+
+        private final int argumentCount;
+
+        FunctionKey(String module, String name, int argumentCount) {
+            this.module = module;
+            this.name = name;
+            this.argumentCount = argumentCount;
+        }
+
+        /**
+         * @return Name of the module, or null if the function is not called through a module
+         */
+        public String getModule() {
+            return module;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getArgumentCount() {
+            return argumentCount;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FunctionKey)) {
+                return false;
+            }
+            FunctionKey other = (FunctionKey) o;
+            return argumentCount == other.argumentCount && name.equals(other.name) && Objects.equals(module, other.module);
+        }
+
+        @Override
+        public int hashCode() {
+            return (Objects.hashCode(module) * 31 + name.hashCode()) * 31 + argumentCount;
+        }
+
+        @Override
+        public String toString() {
+            return (module == null ? "" : module + ".") + name + "/" + argumentCount;
+        }
+
+    }
+
+    /**
+     * Statistics of a function
+     */
+    public static final class FunctionStats {
+
+        private volatile Function function;
+
+        private final LatencyHistogram time = new LatencyHistogram();
+
+        private final LongAdder errorCount = new LongAdder();
+
+        FunctionStats(Function function) {
+            this.function = function;
+        }
+
+        /**
+         * @return The function last called
+         */
+        public Function getFunction() {
+            return function;
+        }
+
+        /**
+         * @return Histogram of call time. Its count is the call count
+         */
+        public LatencyHistogram getTime() {
+            return time;
+        }
+
+        public long getErrorCount() {
+            return errorCount.sum();
+        }
+
+    }
+
+}
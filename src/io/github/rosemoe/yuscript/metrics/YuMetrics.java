@@ -0,0 +1,95 @@
+/*
+ * Copyright 2020 Rose2073
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.rosemoe.yuscript.metrics;
+
+import io.github.rosemoe.yuscript.functions.Function;
+
+/**
+ * Receiver of runtime measurements.
+ * Methods are called on the evaluating threads, so implementations must be thread-safe and cheap.
+ * All methods do nothing by default.
+ *
+ * @author Rose
+ * @see DefaultYuMetrics
+ */
+public interface YuMetrics {
+
+    /**
+     * Metrics that ignores everything. Components skip measuring when they use this instance
+     */
+    YuMetrics NONE = new YuMetrics() {
+    };
+
+    /**
+     * Called after a tree is evaluated
+     *
+     * @param nanos Time used
+     * @param error Error thrown by evaluation, or null
+     */
+    default void onEval(long nanos, Throwable error) {
+    }
+
+    /**
+     * Called after code is parsed
+     *
+     * @param nanos  Time used
+     * @param length Length of code
+     * @param error  Syntax error, or null
+     */
+    default void onParse(long nanos, int length, Throwable error) {
+    }
+
+    /**
+     * Called after a function call returns.
+     * Time of a user function includes time of functions called by it
+     *
+     * @param function The function
+     * @param nanos    Time used
+     * @param error    Error thrown by function, or null
+     */
+    default void onFunctionCall(Function function, long nanos, Throwable error) {
+    }
+
+    /**
+     * Called after a function call returns, with the module it is called from.
+     * By default this calls {@link #onFunctionCall(Function, long, Throwable)}
+     *
+     * @param module   Name of the module, or null if the function is not called through a module
+     * @param function The function
+     * @param nanos    Time used
+     * @param error    Error thrown by function, or null
+     */
+    default void onFunctionCall(String module, Function function, long nanos, Throwable error) {
+        onFunctionCall(function, nanos, error);
+    }
+
+    /**
+     * Called when a context is taken from a context pool
+     *
+     * @param hit Whether a pooled context is reused
+     */
+    default void onContextObtained(boolean hit) {
+    }
+
+    /**
+     * Called when a class is looked up by name
+     *
+     * @param hit Whether the result is found in cache
+     */
+    default void onClassLookup(boolean hit) {
+    }
+
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2020 Rose2073
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.rosemoe.yuscript.output;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Output that queues lines in a bounded lock-free ring buffer and writes them on a background thread.
+ * Lines queued while the writer thread is busy are written together with one write and one flush,
+ * so evaluating threads never wait for console or file I/O unless the buffer is full.
+ * When the buffer is full, writers wait for free space instead of dropping lines.
+ * <p>
+ * The writer thread is a daemon. Call {@link #close()} or {@link #flush()} to make sure all lines are written.
+ * Lines printed after close, for example by other shutdown hooks, are written synchronously.
+ *
+ * @author Rose
+ */
+public class AsyncYuOutput implements YuOutput, AutoCloseable {
+
+    public final static int DEFAULT_CAPACITY = 8192;
+
+    private final static int MAX_BATCH = 1024;
+
+    private final static long FLUSH_PARK_NANOS = 100_000L;
+
+    private static volatile AsyncYuOutput defaultOutput;
+
+    private final Writer target;
+
+    private final String[] buffer;
+
+    /**
+     * Sequence of each slot. A slot is writable at position p when its sequence is p,
+     * and readable when its sequence is p + 1
+     */
+    private final AtomicLongArray sequences;
+
+    private final int mask;
+
+    private final AtomicLong tail = new AtomicLong();
+
+    private long head;
+
+    private volatile long written;
+
+    private volatile boolean idle;
+
+    private volatile boolean closed;
+
+    private volatile IOException lastError;
+
+    private final Thread thread;
+
+    /**
+     * @param stream   Destination stream
+     * @param capacity Capacity of buffer. It is rounded up to a power of two
+     */
+    public AsyncYuOutput(PrintStream stream, int capacity) {
+        this(new OutputStreamWriter(stream), capacity);
+    }
+
+    /**
+     * @param target   Destination writer. It is only used by the writer thread
+     * @param capacity Capacity of buffer. It is rounded up to a power of two
+     */
+    public AsyncYuOutput(Writer target, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.target = target;
+        buffer = new String[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+        thread = new Thread(this::drainLoop, "YuOutput-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Get the shared output to {@link System#out}. It is flushed when JVM exits normally
+     */
+    public static AsyncYuOutput getDefault() {
+        AsyncYuOutput output = defaultOutput;
+        if (output == null) {
+            synchronized (AsyncYuOutput.class) {
+                output = defaultOutput;
+                if (output == null) {
+                    output = new AsyncYuOutput(System.out, DEFAULT_CAPACITY);
+                    Runtime.getRuntime().addShutdownHook(new Thread(output::close, "YuOutput-shutdown"));
+                    defaultOutput = output;
+                }
+            }
+        }
+        return output;
+    }
+
+    @Override
+    public void println(String line) {
+        if (closed) {
+            writeDirectly(line);
+            return;
+        }
+        long pos;
+        int index;
+        for (;;) {
+            pos = tail.get();
+            index = (int) pos & mask;
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+            } else if (diff < 0) {
+                // Full, wait for the writer thread
+                LockSupport.unpark(thread);
+                Thread.yield();
+            }
+        }
+        buffer[index] = line;
+        sequences.set(index, pos + 1);
+        if (idle) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Wait until lines queued before this call are written
+     */
+    @Override
+    public void flush() {
+        long target = tail.get();
+        while (written < target && thread.isAlive()) {
+            LockSupport.unpark(thread);
+            LockSupport.parkNanos(FLUSH_PARK_NANOS);
+        }
+    }
+
+    /**
+     * Get the error of the last failed write, or null
+     */
+    public IOException getLastError() {
+        return lastError;
+    }
+
+    /**
+     * Write lines still in buffer and stop the writer thread
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drainLoop() {
+        StringBuilder batch = new StringBuilder(4096);
+        for (;;) {
+            int count = drainTo(batch);
+            if (count > 0) {
+                writeBatch(batch);
+                continue;
+            }
+            if (closed) {
+                // Writers that passed the check before close may still be publishing
+                if (tail.get() == head) {
+                    return;
+                }
+                Thread.yield();
+                continue;
+            }
+            // Writers unpark this thread when they see idle after publishing, so a line published
+            // after the check below is never missed
+            idle = true;
+            if (!hasReadable() && !closed) {
+                LockSupport.park(this);
+            }
+            idle = false;
+        }
+    }
+
+    /**
+     * Write a line on the calling thread after the writer thread has finished
+     */
+    private void writeDirectly(String line) {
+        try {
+            // Lines queued before close are written first
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (target) {
+            try {
+                target.write(line + System.lineSeparator());
+                target.flush();
+            } catch (IOException e) {
+                lastError = e;
+            }
+        }
+    }
+
+    private boolean hasReadable() {
+        return sequences.get((int) head & mask) == head + 1;
+    }
+
+    private int drainTo(StringBuilder batch) {
+        int count = 0;
+        while (count < MAX_BATCH) {
+            int index = (int) head & mask;
+            if (sequences.get(index) != head + 1) {
+                break;
+            }
+            batch.append(buffer[index]).append(System.lineSeparator());
+            buffer[index] = null;
+            sequences.set(index, head + mask + 1);
+            head++;
+            count++;
+        }
+        return count;
+    }
+
+    private void writeBatch(StringBuilder batch) {
+        try {
+            target.append(batch);
+            target.flush();
+        } catch (IOException e) {
+            lastError = e;
+        }
+        batch.setLength(0);
+        written = head;
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2020 Rose2073
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.rosemoe.yuscript.output;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Output that keeps lines in memory, for returning output of one evaluation with its result.
+ * At most the given count of UTF-8 bytes is kept. Output after the limit is dropped and the output is marked truncated,
+ * so a script printing in a loop can not use up memory.
+ * <p>
+ * Lines are separated by '\n'. It is safe to write from threads started by the script.
+ *
+ * @author Rose
+ * @see io.github.rosemoe.yuscript.YuContext#setOutput(YuOutput)
+ */
+public class CapturedYuOutput implements YuOutput {
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final int byteLimit;
+
+    private final StringBuilder text = new StringBuilder();
+
+    private int byteCount;
+
+    private boolean truncated;
+
+    /**
+     * @param byteLimit Max count of bytes kept
+     */
+    public CapturedYuOutput(int byteLimit) {
+        if (byteLimit < 0) {
+            throw new IllegalArgumentException("byteLimit must not be negative");
+        }
+        this.byteLimit = byteLimit;
+    }
+
+    @Override
+    public void println(String line) {
+        lock.lock();
+        try {
+            if (truncated) {
+                return;
+            }
+            int length = line.length();
+            for (int i = 0; i <= length; i++) {
+                char ch = i == length ? '\n' : line.charAt(i);
+                int bytes;
+                boolean pair = false;
+                if (ch < 0x80) {
+                    bytes = 1;
+                } else if (ch < 0x800) {
+                    bytes = 2;
+                } else if (Character.isHighSurrogate(ch) && i + 1 < length && Character.isLowSurrogate(line.charAt(i + 1))) {
+                    bytes = 4;
+                    pair = true;
+                } else {
+                    bytes = 3;
+                }
+                if (byteCount + bytes > byteLimit) {
+                    truncated = true;
+                    return;
+                }
+                byteCount += bytes;
+                text.append(ch);
+                if (pair) {
+                    text.append(line.charAt(++i));
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Text captured so far
+     */
+    public String getText() {
+        lock.lock();
+        try {
+            return text.toString();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Count of UTF-8 bytes captured
+     */
+    public int getByteCount() {
+        lock.lock();
+        try {
+            return byteCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getByteLimit() {
+        return byteLimit;
+    }
+
+    /**
+     * @return Whether some output is dropped because of the limit
+     */
+    public boolean isTruncated() {
+        lock.lock();
+        try {
+            return truncated;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drop captured text and reset the limit
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            text.setLength(0);
+            byteCount = 0;
+            truncated = false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
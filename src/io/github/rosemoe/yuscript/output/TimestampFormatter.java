@@ -0,0 +1,91 @@
+/*
+ * Copyright 2020 Rose2073
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.rosemoe.yuscript.output;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Thread-safe formatter of time in 'HH:mm:ss.SSS'.
+ * The 'HH:mm:ss.' part is cached for the current second, so most calls only append milliseconds.
+ *
+ * @author Rose
+ */
+public final class TimestampFormatter {
+
+    private final static DateTimeFormatter SECOND_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss.");
+
+    private final static TimestampFormatter DEFAULT = new TimestampFormatter(ZoneId.systemDefault());
+
+    private final ZoneId zone;
+
+    private volatile CachedSecond cache = new CachedSecond(Long.MIN_VALUE, "");
+
+    public TimestampFormatter(ZoneId zone) {
+        this.zone = zone;
+    }
+
+    /**
+     * Get formatter of system default time zone
+     */
+    public static TimestampFormatter getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Append formatted time to the builder
+     *
+     * @param millis Epoch milliseconds
+     * @param sb     Destination
+     * @return The builder
+     */
+    public StringBuilder formatTo(long millis, StringBuilder sb) {
+        long second = Math.floorDiv(millis, 1000);
+        CachedSecond current = cache;
+        if (current.second != second) {
+            current = new CachedSecond(second, SECOND_FORMAT.format(Instant.ofEpochSecond(second).atZone(zone)));
+            cache = current;
+        }
+        int ms = (int) Math.floorMod(millis, 1000);
+        sb.append(current.text);
+        if (ms < 100) {
+            sb.append('0');
+        }
+        if (ms < 10) {
+            sb.append('0');
+        }
+        return sb.append(ms);
+    }
+
+    public String format(long millis) {
+        return formatTo(millis, new StringBuilder(12)).toString();
+    }
+
+    private final static class CachedSecond {
+
+        final long second;
+
+        final String text;
+
+        CachedSecond(long second, String text) {
+            this.second = second;
+            this.text = text;
+        }
+
+    }
+
+}
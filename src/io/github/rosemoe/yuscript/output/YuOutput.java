@@ -0,0 +1,46 @@
+/*
+ * Copyright 2020 Rose2073
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.rosemoe.yuscript.output;
+
+/**
+ * Destination of lines printed by scripts, such as by 'syso'.
+ * Methods are called on the evaluating threads, so implementations must be thread-safe.
+ *
+ * @author Rose
+ * @see AsyncYuOutput
+ */
+@FunctionalInterface
+public interface YuOutput {
+
+    /**
+     * Output that prints lines to {@link System#out} on the calling thread
+     */
+    YuOutput SYSTEM_OUT = System.out::println;
+
+    /**
+     * Write a line. Line separator is added by the output
+     *
+     * @param line The line
+     */
+    void println(String line);
+
+    /**
+     * Wait until lines written before are delivered
+     */
+    default void flush() {
+    }
+
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2020 Rose2073
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.rosemoe.yuscript.trace;
+
+import io.github.rosemoe.yuscript.tree.YuTree;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides whether an evaluation is traced, before it starts.
+ * Implementations should not allocate, because they run for every evaluation.
+ *
+ * @author Rose
+ */
+public interface YuSampler {
+
+    YuSampler ALWAYS = tree -> true;
+
+    YuSampler NEVER = tree -> false;
+
+    /**
+     * @param tree The tree to be evaluated
+     * @return Whether to trace this evaluation
+     */
+    boolean shouldSample(YuTree tree);
+
+    /**
+     * Create a sampler that traces evaluations randomly at the given ratio
+     *
+     * @param ratio Ratio in [0, 1]
+     * @return The sampler
+     */
+    static YuSampler ratio(double ratio) {
+        if (!(ratio >= 0 && ratio <= 1)) {
+            throw new IllegalArgumentException("ratio must be in [0, 1]");
+        }
+        if (ratio == 0) {
+            return NEVER;
+        }
+        if (ratio == 1) {
+            return ALWAYS;
+        }
+        return tree -> ThreadLocalRandom.current().nextDouble() < ratio;
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2020 Rose2073
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.rosemoe.yuscript.trace;
+
+/**
+ * A finished span of a trace.
+ * Times are in nanoseconds relative to the start of the trace.
+ *
+ * @author Rose
+ */
+public final class YuSpan {
+
+    private final long traceId;
+
+    private final long traceStartTime;
+
+    private final int spanId;
+
+    private final int parentSpanId;
+
+    private final String name;
+
+    private final long startTime;
+
+    private final long duration;
+
+    private final String error;
+
+    YuSpan(long traceId, long traceStartTime, int spanId, int parentSpanId, String name, long startTime, long duration, String error) {
+        this.traceId = traceId;
+        this.traceStartTime = traceStartTime;
+        this.spanId = spanId;
+        this.parentSpanId = parentSpanId;
+        this.name = name;
+        this.startTime = startTime;
+        this.duration = duration;
+        this.error = error;
+    }
+
+    public long getTraceId() {
+        return traceId;
+    }
+
+    /**
+     * @return Wall clock time when the trace started, in milliseconds
+     */
+    public long getTraceStartTime() {
+        return traceStartTime;
+    }
+
+    /**
+     * @return Id of this span, unique in its trace. The root span is 1
+     */
+    public int getSpanId() {
+        return spanId;
+    }
+
+    /**
+     * @return Id of parent span, or 0 for the root span
+     */
+    public int getParentSpanId() {
+        return parentSpanId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return Description of the error thrown in this span, or null
+     */
+    public String getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return "trace=" + traceId + " span=" + spanId + " parent=" + parentSpanId + " name=" + name
+                + " start=+" + startTime / 1000 + "us duration=" + duration / 1000 + "us"
+                + (error == null ? "" : " error=" + error);
+    }
+
+}
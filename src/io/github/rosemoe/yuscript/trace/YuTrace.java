@@ -0,0 +1,86 @@
+/*
+ * Copyright 2020 Rose2073
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.rosemoe.yuscript.trace;
+
+import java.util.Arrays;
+
+/**
+ * Spans of one traced evaluation that are still open.
+ * A trace belongs to the context being evaluated and is used by one thread at a time.
+ *
+ * @author Rose
+ */
+public final class YuTrace {
+
+    private final YuTraceRecorder recorder;
+
+    private final long traceId;
+
+    private final long startTime = System.nanoTime();
+
+    private final long wallStartTime = System.currentTimeMillis();
+
+    private int[] spanIds = new int[8];
+
+    private long[] startTimes = new long[8];
+
+    private String[] names = new String[8];
+
+    private int depth;
+
+    private int lastSpanId;
+
+    YuTrace(YuTraceRecorder recorder, long traceId) {
+        this.recorder = recorder;
+        this.traceId = traceId;
+    }
+
+    public long getTraceId() {
+        return traceId;
+    }
+
+    /**
+     * Open a span under the innermost open span
+     *
+     * @param name Name of span
+     */
+    public void begin(String name) {
+        if (depth == spanIds.length) {
+            spanIds = Arrays.copyOf(spanIds, depth << 1);
+            startTimes = Arrays.copyOf(startTimes, depth << 1);
+            names = Arrays.copyOf(names, depth << 1);
+        }
+        spanIds[depth] = ++lastSpanId;
+        startTimes[depth] = System.nanoTime();
+        names[depth] = name;
+        depth++;
+    }
+
+    /**
+     * Close the innermost open span and record it
+     *
+     * @param error Error thrown in the span, or null
+     */
+    public void end(Throwable error) {
+        long now = System.nanoTime();
+        depth--;
+        int parent = depth == 0 ? 0 : spanIds[depth - 1];
+        recorder.record(new YuSpan(traceId, wallStartTime, spanIds[depth], parent, names[depth],
+                startTimes[depth] - startTime, now - startTimes[depth], error == null ? null : error.toString()));
+        names[depth] = null;
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2020 Rose2073
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.rosemoe.yuscript.trace;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Ring buffer keeping the most recent spans.
+ * Recording is lock-free. When the buffer is full, the oldest span is overwritten.
+ *
+ * @author Rose
+ */
+public final class YuTraceRecorder {
+
+    private final AtomicReferenceArray<YuSpan> spans;
+
+    private final AtomicLong recordedCount = new AtomicLong();
+
+    /**
+     * Create a recorder
+     *
+     * @param capacity Max count of kept spans
+     */
+    public YuTraceRecorder(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        spans = new AtomicReferenceArray<>(capacity);
+    }
+
+    public int getCapacity() {
+        return spans.length();
+    }
+
+    /**
+     * @return Count of spans recorded since creation, including overwritten ones
+     */
+    public long getRecordedCount() {
+        return recordedCount.get();
+    }
+
+    void record(YuSpan span) {
+        long index = recordedCount.getAndIncrement();
+        spans.set((int) (index % spans.length()), span);
+    }
+
+    /**
+     * Get kept spans, from oldest to newest.
+     * Spans recorded during the dump may be missing or appear out of order
+     *
+     * @return Kept spans
+     */
+    public List<YuSpan> dump() {
+        long end = recordedCount.get();
+        int capacity = spans.length();
+        long start = Math.max(0, end - capacity);
+        List<YuSpan> result = new ArrayList<>((int) (end - start));
+        for (long i = start; i < end; i++) {
+            YuSpan span = spans.get((int) (i % capacity));
+            if (span != null) {
+                result.add(span);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Print kept spans, one in a line
+     *
+     * @param out The stream to print to
+     */
+    public void dump(PrintStream out) {
+        for (YuSpan span : dump()) {
+            out.println(span);
+        }
+    }
+
+    /**
+     * Remove all kept spans
+     */
+    public void clear() {
+        for (int i = 0; i < spans.length(); i++) {
+            spans.set(i, null);
+        }
+    }
+
+}
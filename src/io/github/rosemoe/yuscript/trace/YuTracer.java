@@ -0,0 +1,99 @@
+/*
+ * Copyright 2020 Rose2073
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.rosemoe.yuscript.trace;
+
+import io.github.rosemoe.yuscript.tree.YuTree;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracer of evaluations.
+ * Whether an evaluation is traced is decided by the sampler when it starts. A traced evaluation records spans
+ * for itself, module function calls, and calls to traced functions (Java interop functions by default).
+ * Nothing is allocated for evaluations that are not sampled.
+ *
+ * @author Rose
+ */
+public class YuTracer {
+
+    /**
+     * Functions traced by default
+     */
+    public final static Set<String> INTEROP_FUNCTIONS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList("java", "javax", "javanew")));
+
+    private final YuSampler sampler;
+
+    private final YuTraceRecorder recorder;
+
+    private final AtomicLong lastTraceId = new AtomicLong();
+
+    private volatile Set<String> tracedFunctions = INTEROP_FUNCTIONS;
+
+    /**
+     * Create a tracer
+     *
+     * @param sampler  Sampler deciding which evaluations are traced
+     * @param recorder Recorder of finished spans
+     */
+    public YuTracer(YuSampler sampler, YuTraceRecorder recorder) {
+        this.sampler = Objects.requireNonNull(sampler);
+        this.recorder = Objects.requireNonNull(recorder);
+    }
+
+    public YuSampler getSampler() {
+        return sampler;
+    }
+
+    public YuTraceRecorder getRecorder() {
+        return recorder;
+    }
+
+    /**
+     * Set names of functions whose calls are recorded as spans
+     *
+     * @param names Function names
+     */
+    public void setTracedFunctions(Set<String> names) {
+        tracedFunctions = Collections.unmodifiableSet(new HashSet<>(names));
+    }
+
+    public Set<String> getTracedFunctions() {
+        return tracedFunctions;
+    }
+
+    public boolean isTracedFunction(String name) {
+        return tracedFunctions.contains(name);
+    }
+
+    /**
+     * Start a trace for evaluation of the tree if the sampler accepts it
+     *
+     * @param tree The tree to evaluate
+     * @return The trace, or null if it is not sampled
+     */
+    public YuTrace startTrace(YuTree tree) {
+        if (!sampler.shouldSample(tree)) {
+            return null;
+        }
+        return new YuTrace(recorder, lastTraceId.incrementAndGet());
+    }
+
+}
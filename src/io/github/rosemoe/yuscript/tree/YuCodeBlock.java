@@ -15,18 +15,35 @@
  */
 package io.github.rosemoe.yuscript.tree;
 
-import java.util.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import io.github.rosemoe.yuscript.ir.YuProgram;
+import io.github.rosemoe.yuscript.util.CompactList;
 
 /**
  * @author Rose
  */
 public class YuCodeBlock implements YuNode {
 
-    private final List<YuNode> children;
+    private final CompactList<YuNode> children;
+
+    private List<YuFunction> functions;
 
-    private final List<YuFunction> functions;
+    /**
+     * Created when the first function is added, most blocks have none
+     */
+    private Map<String, List<YuFunction>> functionMap;
 
-    private final Map<String, List<YuFunction>> functionMap = new HashMap<>();
+    /**
+     * Program compiled from this block by the virtual machine of interpreter.
+     * It is immutable because a tree can be evaluated by several threads
+     */
+    private YuProgram compiledProgram;
 
     @Override
     public <T, R> R accept(YuTreeVisitor<R, T> visitor, T value) {
@@ -34,8 +51,24 @@ public class YuCodeBlock implements YuNode {
     }
 
     public YuCodeBlock() {
-        children = new ArrayList<>();
-        functions = new ArrayList<>();
+        children = new CompactList<>();
+        functions = Collections.emptyList();
+    }
+
+    /**
+     * @return Program compiled from this block, or null if it is not compiled yet
+     */
+    public YuProgram getCompiledProgram() {
+        return compiledProgram;
+    }
+
+    /**
+     * Keep the program compiled from this block, so that it is compiled only once
+     *
+     * @param program The program
+     */
+    public void setCompiledProgram(YuProgram program) {
+        compiledProgram = program;
     }
 
     public void addChild(YuNode child) {
@@ -51,11 +84,19 @@ public class YuCodeBlock implements YuNode {
     }
 
     public void addFunction(YuFunction function) {
+        if (functionMap == null) {
+            functions = new CompactList<>();
+            functionMap = new HashMap<>(4);
+        }
         functions.add(function);
-        functionMap.computeIfAbsent(function.getName(), (name) -> new ArrayList<>(4)).add(function);
+        functionMap.computeIfAbsent(function.getName(), (name) -> new ArrayList<>(1)).add(function);
     }
 
     public YuFunction getFunction(String functionName, int parameterCount) {
+        Map<String, List<YuFunction>> functionMap = this.functionMap;
+        if (functionMap == null) {
+            return null;
+        }
         List<YuFunction> functions = functionMap.get(functionName);
         if (functions == null) {
             return null;
@@ -69,4 +110,14 @@ public class YuCodeBlock implements YuNode {
         return null;
     }
 
+    /**
+     * Release unused slots of lists
+     */
+    void trimToSize() {
+        children.trimToSize();
+        if (functions instanceof CompactList) {
+            ((CompactList<YuFunction>) functions).trimToSize();
+        }
+    }
+
 }
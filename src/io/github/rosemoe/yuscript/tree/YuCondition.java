@@ -18,6 +18,7 @@ package io.github.rosemoe.yuscript.tree;
 import io.github.rosemoe.yuscript.YuContext;
 import io.github.rosemoe.yuscript.YuTokens;
 import io.github.rosemoe.yuscript.YuInterpreter;
+import io.github.rosemoe.yuscript.util.CharSlice;
 
 /**
  * @author Rose
@@ -89,6 +90,20 @@ public class YuCondition implements YuNode {
         }
     }
 
+    /**
+     * Text form of value. Character sequences such as {@link CharSlice} are compared without copying
+     */
+    private static CharSequence textOf(Object value) {
+        return value instanceof CharSequence ? (CharSequence) value : YuInterpreter.stringForm(value);
+    }
+
+    private static boolean textEquals(Object left, Object right) {
+        if (left instanceof CharSlice || right instanceof CharSlice) {
+            return CharSlice.contentEquals(textOf(left), textOf(right));
+        }
+        return YuInterpreter.stringForm(left).equals(YuInterpreter.stringForm(right));
+    }
+
     private static boolean compareLessOrEqual(YuContext context, YuExpression left, YuExpression right) {
         Object leftValue = left.getValue(context);
         Object rightValue = right.getValue(context);
@@ -105,9 +120,9 @@ public class YuCondition implements YuNode {
             try {
                 switch (operator) {
                     case EQEQ:
-                        return YuInterpreter.stringForm(left.getValue(context)).equals(YuInterpreter.stringForm(right.getValue(context)));
+                        return textEquals(left.getValue(context), right.getValue(context));
                     case NOTEQ:
-                        return !YuInterpreter.stringForm(left.getValue(context)).equals(YuInterpreter.stringForm(right.getValue(context)));
+                        return !textEquals(left.getValue(context), right.getValue(context));
                     case LT:
                         return getDouble(left.getValue(context)) < getDouble(right.getValue(context));
                     case GT:
@@ -117,11 +132,11 @@ public class YuCondition implements YuNode {
                     case GTEQ:
                         return getDouble(left.getValue(context)) >= getDouble(right.getValue(context));
                     case STARTS_WITH:
-                        return YuInterpreter.stringForm(left.getValue(context)).startsWith(YuInterpreter.stringForm(right.getValue(context)));
+                        return CharSlice.startsWith(textOf(left.getValue(context)), textOf(right.getValue(context)));
                     case CONTAINS:
-                        return YuInterpreter.stringForm(left.getValue(context)).contains(YuInterpreter.stringForm(right.getValue(context)));
+                        return CharSlice.indexOf(textOf(left.getValue(context)), textOf(right.getValue(context)), 0) != -1;
                     case ENDS_WITH:
-                        return YuInterpreter.stringForm(left.getValue(context)).endsWith(YuInterpreter.stringForm(right.getValue(context)));
+                        return CharSlice.endsWith(textOf(left.getValue(context)), textOf(right.getValue(context)));
                 }
             } catch (NumberFormatException e) {
                 return false;
@@ -15,12 +15,13 @@
  */
 package io.github.rosemoe.yuscript.tree;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 
 import io.github.rosemoe.yuscript.YuContext;
 import io.github.rosemoe.yuscript.YuTokens;
+import io.github.rosemoe.yuscript.util.CompactList;
 
 /**
  * @author Rose
@@ -37,8 +38,8 @@ public class YuConditionalExpression implements YuNode {
     }
 
     public YuConditionalExpression() {
-        children = new ArrayList<>();
-        operators = new ArrayList<>();
+        children = new CompactList<>();
+        operators = Collections.emptyList();
     }
 
     public void addChild(YuCondition child) {
@@ -50,6 +51,9 @@ public class YuConditionalExpression implements YuNode {
 
     public void addExpression(YuTokens op, YuCondition child) {
         children.add(Objects.requireNonNull(child));
+        if (operators.isEmpty()) {
+            operators = new CompactList<>();
+        }
         operators.add(Objects.requireNonNull(op));
     }
 
@@ -92,4 +96,14 @@ public class YuConditionalExpression implements YuNode {
         return condition;
     }
 
+    /**
+     * Release unused slots of lists
+     */
+    void trimToSize() {
+        ((CompactList<YuCondition>) children).trimToSize();
+        if (operators instanceof CompactList) {
+            ((CompactList<YuTokens>) operators).trimToSize();
+        }
+    }
+
 }
@@ -15,12 +15,13 @@
  */
 package io.github.rosemoe.yuscript.tree;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 
 import io.github.rosemoe.yuscript.YuContext;
 import io.github.rosemoe.yuscript.YuTokens;
+import io.github.rosemoe.yuscript.util.CompactList;
 
 /**
  * @author Rose
@@ -31,9 +32,17 @@ public class YuExpression extends YuValue {
 
     public List<YuTokens> operators;
 
+    /**
+     * Data derived from this expression by the function receiving it as an argument,
+     * such as a compiled pattern. Only used when the expression is constant.
+     * Cached objects must be immutable because a tree can be evaluated by several threads
+     */
+    public Object callSiteCache;
+
     public YuExpression() {
-        children = new ArrayList<>();
-        operators = new ArrayList<>();
+        children = new CompactList<>();
+        // Most expressions are single values, so operators are created on first use
+        operators = Collections.emptyList();
     }
 
     @Override
@@ -50,6 +59,9 @@ public class YuExpression extends YuValue {
 
     public void addExpression(YuTokens op, YuValue child) {
         children.add(Objects.requireNonNull(child));
+        if (operators.isEmpty()) {
+            operators = new CompactList<>();
+        }
         operators.add(Objects.requireNonNull(op));
     }
 
@@ -67,19 +79,53 @@ public class YuExpression extends YuValue {
         return operators;
     }
 
+    /**
+     * @return Whether this expression is a single constant value
+     */
+    public boolean isConstant() {
+        if (!operators.isEmpty()) {
+            return false;
+        }
+        YuValue value = children.get(0);
+        return !(value instanceof YuExpression) && !value.isInvert() && value.getType() != TYPE_VAR;
+    }
+
     @Override
     public Object getValue(YuContext context) {
         if (operators.isEmpty()) {
             return children.get(0).getValue(context);
         }
-        StringBuilder sb = new StringBuilder().append(children.get(0).getValue(context));
+        StringBuilder sb = new StringBuilder();
+        append(sb, children.get(0).getValue(context));
         for (int i = 0; i < operators.size(); i++) {
             if (operators.get(i) != YuTokens.PLUS) {
                 throw new YuSyntaxError();
             }
-            sb.append(children.get(i + 1).getValue(context));
+            append(sb, children.get(i + 1).getValue(context));
         }
         return sb.toString();
 
     }
+
+    private static void append(StringBuilder sb, Object value) {
+        if (value instanceof CharSequence) {
+            // Copy characters of views directly instead of materializing them first
+            sb.append((CharSequence) value);
+        } else {
+            sb.append(value);
+        }
+    }
+
+    /**
+     * Release unused slots of lists
+     */
+    void trimToSize() {
+        if (children instanceof CompactList) {
+            ((CompactList<YuValue>) children).trimToSize();
+        }
+        if (operators instanceof CompactList) {
+            ((CompactList<YuTokens>) operators).trimToSize();
+        }
+    }
+
 }
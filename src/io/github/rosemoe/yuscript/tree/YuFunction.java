@@ -16,22 +16,36 @@
 package io.github.rosemoe.yuscript.tree;
 
 import io.github.rosemoe.yuscript.YuContext;
+import io.github.rosemoe.yuscript.YuFrame;
 import io.github.rosemoe.yuscript.YuInterpreter;
 import io.github.rosemoe.yuscript.functions.Function;
+import io.github.rosemoe.yuscript.util.CompactList;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
 
 public class YuFunction implements YuNode, Function {
 
     private String name;
 
-    private final List<String> parameterNames = new ArrayList<>();
+    private final static int[] EMPTY_POSITIONS = new int[0];
 
-    private final List<Integer> returnPositions = new ArrayList<>();
+    private final CompactList<String> parameterNames = new CompactList<>();
+
+    private int[] parameterSlots = EMPTY_POSITIONS;
+
+    private int[] returnPositions = EMPTY_POSITIONS;
 
     private YuCodeBlock functionBody;
 
+    private volatile YuMemoTable memoTable;
+
+    private int[] keyPositions = EMPTY_POSITIONS;
+
+    public final static int DEFAULT_MEMO_CAPACITY = 1024;
+
     public String getName() {
         return name;
     }
@@ -41,37 +55,214 @@ public class YuFunction implements YuNode, Function {
         return getParameterCount();
     }
 
+    /*
+     * Java frames of this method are repeated for each level of nested script calls,
+     * so rare work is moved out of it to keep deep recursion possible
+     */
     @Override
     public void invoke(List<YuExpression> arguments, YuCodeBlock additionalCodeBlock, YuContext context, YuInterpreter interpreter) throws Throwable {
-        YuContext newContext = YuContext.obtain(context.getSession());
-        newContext.setDeclaringInterpreter(context.getDeclaringInterpreter());
-        for (int i = 0; i < getParameterCount(); i++) {
-            String name = getParameterNames().get(i);
-            Object value = arguments.get(i).getValue(context);
-            newContext.setVariable(YuVariableType.LOCAL, name, value);
-        }
-        interpreter.visitCodeBlock(getFunctionBody(), newContext);
-        List<Integer> returnPositions = getReturnPositions();
-        for (int i = 0; i < returnPositions.size(); i++) {
-            Integer position = returnPositions.get(i);
-            YuExpression paramExpr = arguments.get(position);
+        if (context.getFrameDepth() >= interpreter.getMaxCallDepth()) {
+            throw new YuRuntimeError("call depth exceeds " + interpreter.getMaxCallDepth() + " in function '" + name + "'");
+        }
+        YuFrame frame = bindArguments(arguments, context);
+        YuMemoTable memoTable = this.memoTable;
+        if (memoTable != null) {
+            invokeMemoized(memoTable, frame, arguments, context, interpreter);
+            return;
+        }
+        context.enterFrame(this);
+        try {
+            do {
+                if (interpreter.isVirtualMachineEnabled()) {
+                    interpreter.executeBlock(getFunctionBody(), context);
+                } else {
+                    interpreter.visitCodeBlock(getFunctionBody(), context);
+                }
+            } while (context.consumeRestart());
+        } finally {
+            frame = context.exitFrame();
+        }
+        setReturnValues(arguments, context, getResults(frame));
+    }
+
+    private void invokeMemoized(YuMemoTable memoTable, YuFrame frame, List<YuExpression> arguments, YuContext context, YuInterpreter interpreter) {
+        int memoHash = hashKeys(frame);
+        YuMemoTable.Entry entry = memoTable.get(memoHash);
+        if (entry != null && matchKeys(entry.keys, frame)) {
+            memoTable.recordHit();
+            setReturnValues(arguments, context, entry.results);
+            return;
+        }
+        memoTable.recordMiss();
+        // Frame may be restarted by tail calls, so keys are copied before running
+        Object[] memoKeys = copyKeys(frame);
+        context.enterFrame(this);
+        try {
+            do {
+                interpreter.executeBlock(getFunctionBody(), context);
+            } while (context.consumeRestart());
+        } finally {
+            frame = context.exitFrame();
+        }
+        Object[] results = getResults(frame);
+        memoTable.put(memoHash, memoKeys, results);
+        setReturnValues(arguments, context, results);
+    }
+
+    private Object[] getResults(YuFrame frame) {
+        int[] returnPositions = this.returnPositions;
+        Object[] results = new Object[returnPositions.length];
+        for (int i = 0; i < returnPositions.length; i++) {
+            int position = returnPositions[i];
+            results[i] = frame.getLocal(parameterSlots[position], parameterNames.get(position));
+        }
+        return results;
+    }
+
+    private void setReturnValues(List<YuExpression> arguments, YuContext context, Object[] results) {
+        int[] returnPositions = this.returnPositions;
+        for (int i = 0; i < returnPositions.length; i++) {
+            YuExpression paramExpr = arguments.get(returnPositions[i]);
             if (paramExpr.getOperators().size() == 0) {
                 YuValue valueObj = paramExpr.getChildren().get(0);
                 if (valueObj.getType() == YuValue.TYPE_VAR) {
-                    Object value = newContext.getVariable(YuVariableType.LOCAL, getParameterNames().get(position));
-                    context.setVariable(valueObj.variableType, valueObj.variableKey, value);
+                    context.setVariable(valueObj.variableType, valueObj.variableKey, results[i]);
                 }
             }
         }
-        YuContext.recycle(newContext);
     }
 
+    private int hashKeys(YuFrame frame) {
+        int hash = 1;
+        for (int position : keyPositions) {
+            hash = 31 * hash + Objects.hashCode(frame.getLocal(parameterSlots[position], parameterNames.get(position)));
+        }
+        // Spread higher bits to the index bits of memo table
+        return hash ^ (hash >>> 16);
+    }
+
+    private boolean matchKeys(Object[] keys, YuFrame frame) {
+        int[] keyPositions = this.keyPositions;
+        for (int i = 0; i < keyPositions.length; i++) {
+            int position = keyPositions[i];
+            if (!Objects.equals(keys[i], frame.getLocal(parameterSlots[position], parameterNames.get(position)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Object[] copyKeys(YuFrame frame) {
+        int[] keyPositions = this.keyPositions;
+        Object[] keys = new Object[keyPositions.length];
+        for (int i = 0; i < keyPositions.length; i++) {
+            int position = keyPositions[i];
+            keys[i] = frame.getLocal(parameterSlots[position], parameterNames.get(position));
+        }
+        return keys;
+    }
+
+    /**
+     * Mark this function as pure and cache its results by the values of its non-return parameters.
+     * A pure function must not read variables other than its parameters or have side effects, and
+     * its return parameters must be assigned before they are read.
+     * This method should be called after all parameters are added and when no evaluation is in progress
+     *
+     * @param capacity Max count of cached results. 0 to disable the cache
+     */
+    public void setMemoCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative");
+        }
+        if (capacity == 0) {
+            memoTable = null;
+            return;
+        }
+        int[] keys = new int[getParameterCount() - returnPositions.length];
+        int count = 0;
+        for (int i = 0; i < getParameterCount(); i++) {
+            if (!isReturnPosition(i)) {
+                keys[count++] = i;
+            }
+        }
+        keyPositions = keys;
+        memoTable = new YuMemoTable(capacity);
+    }
+
+    private boolean isReturnPosition(int position) {
+        for (int returnPosition : returnPositions) {
+            if (returnPosition == position) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Whether results of this function are cached
+     */
+    public boolean isPure() {
+        return memoTable != null;
+    }
+
+    /**
+     * @return Result cache of this function, or null if it is not pure
+     */
+    public YuMemoTable getMemoTable() {
+        return memoTable;
+    }
+
+    /**
+     * Run a self call in tail position by restarting current frame with new arguments.
+     * The call must be marked by {@link YuFunctionCall#tailCallCandidate} and this function
+     * must be running in current frame.
+     *
+     * @param arguments Arguments of the call
+     * @param context   Current context
+     */
+    public void invokeTailCall(List<YuExpression> arguments, YuContext context) {
+        bindArguments(arguments, context);
+        context.restartFrame();
+    }
+
+    private YuFrame bindArguments(List<YuExpression> arguments, YuContext context) {
+        int[] parameterSlots = this.parameterSlots;
+        List<String> parameterNames = this.parameterNames;
+        // Arguments are evaluated in caller's frame
+        YuFrame frame = context.prepareFrame();
+        for (int i = 0; i < parameterSlots.length; i++) {
+            frame.setLocal(parameterSlots[i], parameterNames.get(i), arguments.get(i).getValue(context));
+        }
+        return frame;
+    }
+
+    /**
+     * @return Read-only view of positions of return parameters
+     */
     public List<Integer> getReturnPositions() {
-        return returnPositions;
+        return new AbstractList<Integer>() {
+            @Override
+            public Integer get(int index) {
+                return returnPositions[index];
+            }
+
+            @Override
+            public int size() {
+                return returnPositions.length;
+            }
+        };
+    }
+
+    /**
+     * @return Copy of positions of return parameters
+     */
+    public int[] getReturnPositionArray() {
+        return returnPositions.clone();
     }
 
     public void markReturnPosition() {
-        returnPositions.add(getParameterCount() - 1);
+        returnPositions = Arrays.copyOf(returnPositions, returnPositions.length + 1);
+        returnPositions[returnPositions.length - 1] = getParameterCount() - 1;
     }
 
     public void setName(String name) {
@@ -80,8 +271,9 @@ public class YuFunction implements YuNode, Function {
 
     public void addParameter(String name) {
         parameterNames.add(name);
+        parameterSlots = Arrays.copyOf(parameterSlots, parameterSlots.length + 1);
+        parameterSlots[parameterSlots.length - 1] = YuFrame.slotOf(name);
     }
-
     public int getParameterCount() {
         return parameterNames.size();
     }
@@ -92,6 +284,53 @@ public class YuFunction implements YuNode, Function {
 
     public void setFunctionBody(YuCodeBlock functionBody) {
         this.functionBody = functionBody;
+        markTailCalls(functionBody);
+    }
+
+    /**
+     * Mark calls to this function in tail position of the given block.
+     * A statement is in tail position if it is the last statement of function body or is followed by 'endcode',
+     * or it is in tail position of an 'f' statement in tail position.
+     * Such a call can reuse current frame only if every return argument is exactly the matching return parameter
+     * of this function, so that the result of the call is the result of this function.
+     */
+    private void markTailCalls(YuCodeBlock block) {
+        List<YuNode> children = block.getChildren();
+        int size = children.size();
+        for (int i = 0; i < size; i++) {
+            if (i != size - 1 && !(children.get(i + 1) instanceof YuEndcode)) {
+                continue;
+            }
+            YuNode node = children.get(i);
+            if (node instanceof YuIfTree) {
+                YuIfTree tree = (YuIfTree) node;
+                markTailCalls(tree.getCodeBlock());
+                if (tree.getFallbackCodeBlock() != null) {
+                    markTailCalls(tree.getFallbackCodeBlock());
+                }
+            } else if (node instanceof YuFunctionCall) {
+                YuFunctionCall call = (YuFunctionCall) node;
+                call.tailCallCandidate = isSelfTailCall(call);
+            }
+        }
+    }
+
+    private boolean isSelfTailCall(YuFunctionCall call) {
+        if (!call.getFunctionName().equals(name) || call.arguments.size() != getParameterCount() || call.additionalCodeBlock != null) {
+            return false;
+        }
+        for (int position : returnPositions) {
+            YuExpression expr = call.arguments.get(position);
+            if (!expr.getOperators().isEmpty()) {
+                return false;
+            }
+            YuValue value = expr.getChildren().get(0);
+            if (value.getType() != YuValue.TYPE_VAR || value.isInvert() || value.variableType != YuVariableType.LOCAL
+                    || !value.variableKey.equals(parameterNames.get(position))) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public YuCodeBlock getFunctionBody() {
@@ -103,4 +342,11 @@ public class YuFunction implements YuNode, Function {
         return visitor.visitFunction(this, value);
     }
 
+    /**
+     * Release unused slots of lists
+     */
+    void trimToSize() {
+        parameterNames.trimToSize();
+    }
+
 }
@@ -16,8 +16,9 @@
 package io.github.rosemoe.yuscript.tree;
 
 import io.github.rosemoe.yuscript.functions.Function;
+import io.github.rosemoe.yuscript.util.CompactList;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -33,16 +34,25 @@ public class YuFunctionCall implements YuNode {
 
     public Function resolvedFunction;
 
+    /**
+     * Whether this call may be a self call in tail position of a function.
+     * It is set by the enclosing {@link YuFunction} when its body is parsed.
+     */
+    public boolean tailCallCandidate;
+
     @Override
     public <T, R> R accept(YuTreeVisitor<R, T> visitor, T value) {
         return visitor.visitFunctionCall(this, value);
     }
 
     public YuFunctionCall() {
-        arguments = new ArrayList<>();
+        arguments = Collections.emptyList();
     }
 
     public void addArgument(YuExpression expression) {
+        if (arguments.isEmpty()) {
+            arguments = new CompactList<>();
+        }
         arguments.add(expression);
     }
 
@@ -75,4 +85,13 @@ public class YuFunctionCall implements YuNode {
         return additionalCodeBlock;
     }
 
+    /**
+     * Release unused slots of lists
+     */
+    void trimToSize() {
+        if (arguments instanceof CompactList) {
+            ((CompactList<YuExpression>) arguments).trimToSize();
+        }
+    }
+
 }
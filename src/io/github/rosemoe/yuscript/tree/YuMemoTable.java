@@ -0,0 +1,133 @@
+/*
+ * Copyright 2020 Rose2073
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.rosemoe.yuscript.tree;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author Rose
+ * Bounded cache of results of a pure {@link YuFunction}, keyed by argument values.
+ * It is a direct-mapped table: an entry replaces the entry with the same slot, so lookups and
+ * insertions never lock. Entries are immutable and safe to share between threads.
+ */
+public final class YuMemoTable {
+
+    private final Entry[] entries;
+
+    private final int mask;
+
+    private final LongAdder hitCount = new LongAdder();
+
+    private final LongAdder missCount = new LongAdder();
+
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * Create a table
+     *
+     * @param capacity Max count of entries. Rounded up to a power of two
+     */
+    public YuMemoTable(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        entries = new Entry[size];
+        mask = size - 1;
+    }
+
+    /**
+     * @return Max count of entries
+     */
+    public int getCapacity() {
+        return entries.length;
+    }
+
+    /**
+     * Get the entry that may hold results for arguments with the given hash.
+     * Caller must compare the keys.
+     */
+    Entry get(int hash) {
+        Entry entry = entries[hash & mask];
+        return entry != null && entry.hash == hash ? entry : null;
+    }
+
+    void put(int hash, Object[] keys, Object[] results) {
+        int index = hash & mask;
+        if (entries[index] != null) {
+            evictionCount.increment();
+        }
+        entries[index] = new Entry(hash, keys, results);
+    }
+
+    void recordHit() {
+        hitCount.increment();
+    }
+
+    void recordMiss() {
+        missCount.increment();
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * @return Ratio of hits in all lookups. 0 if never looked up
+     */
+    public double getHitRate() {
+        long hits = getHitCount();
+        long total = hits + getMissCount();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Remove all cached results
+     */
+    public void clear() {
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = null;
+        }
+    }
+
+    static final class Entry {
+
+        final int hash;
+
+        final Object[] keys;
+
+        final Object[] results;
+
+        Entry(int hash, Object[] keys, Object[] results) {
+            this.hash = hash;
+            this.keys = keys;
+            this.results = results;
+        }
+
+    }
+
+}
@@ -1,11 +1,20 @@
 package io.github.rosemoe.yuscript.tree;
 
+import io.github.rosemoe.yuscript.functions.Function;
+import io.github.rosemoe.yuscript.functions.YuModule;
+
 public class YuModuleFunctionCall extends YuFunctionCall {
 
     private String moduleName;
 
     private int resolvedModuleId = -1;
 
+    /**
+     * Function resolved from a module snapshot.
+     * It is only valid while the module still publishes the same snapshot.
+     */
+    public Binding resolvedBinding;
+
     public void setModuleName(String moduleName) {
         this.moduleName = moduleName;
     }
@@ -27,4 +36,20 @@ public class YuModuleFunctionCall extends YuFunctionCall {
         return visitor.visitModuleFunctionCall(this, value);
     }
 
+    /**
+     * Immutable pair of snapshot and the function resolved from it
+     */
+    public static final class Binding {
+
+        public final YuModule.Snapshot snapshot;
+
+        public final Function function;
+
+        public Binding(YuModule.Snapshot snapshot, Function function) {
+            this.snapshot = snapshot;
+            this.function = function;
+        }
+
+    }
+
 }
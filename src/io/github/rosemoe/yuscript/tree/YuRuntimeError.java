@@ -0,0 +1,35 @@
+/*
+ * Copyright 2020 Rose2073
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.rosemoe.yuscript.tree;
+
+/**
+ * @author Rose
+ * Error raised by a running script, such as too deep calls.
+ * It is not wrapped again when it goes through function calls.
+ */
+public class YuRuntimeError extends Error {
+
+    private static final long serialVersionUID = 4627164301591024318L;
+
+    public YuRuntimeError(String message) {
+        super(message);
+    }
+
+    public YuRuntimeError(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+}
@@ -18,6 +18,7 @@ package io.github.rosemoe.yuscript.tree;
 import java.util.Objects;
 
 import io.github.rosemoe.yuscript.YuTokens;
+import io.github.rosemoe.yuscript.metrics.YuMetrics;
 
 /**
  * @author Rose
@@ -25,7 +26,16 @@ import io.github.rosemoe.yuscript.YuTokens;
  */
 public final class YuTree {
 
-    private final YuTokenizer tokenizer;
+    /**
+     * Nodes without state are shared by all trees
+     */
+    private final static YuEndcode ENDCODE = new YuEndcode();
+    private final static YuBreak BREAK = new YuBreak();
+
+    /**
+     * Only used while parsing, so that the source text is not kept by the tree
+     */
+    private YuTokenizer tokenizer;
     private final YuScope root;
 
     public YuTree(YuTokenizer tokenizer) throws YuSyntaxError {
@@ -38,12 +48,91 @@ public final class YuTree {
         } catch (YuSyntaxError e) {
             throw new YuSyntaxError("line: " + tokenizer.getLine() + " column: " + tokenizer.getColumn(), e);
         }
+        this.tokenizer = null;
+        root.accept(new Compactor(), null);
+    }
+
+    /**
+     * Parse the code and report parse time to the metrics
+     *
+     * @param code    Source code
+     * @param metrics Metrics to report to
+     * @return The tree
+     * @throws YuSyntaxError If the code can not be parsed
+     */
+    public static YuTree parse(String code, YuMetrics metrics) throws YuSyntaxError {
+        if (metrics == YuMetrics.NONE) {
+            return new YuTree(new YuTokenizer(code));
+        }
+        long start = System.nanoTime();
+        Throwable error = null;
+        try {
+            return new YuTree(new YuTokenizer(code));
+        } catch (Throwable e) {
+            error = e;
+            throw e;
+        } finally {
+            metrics.onParse(System.nanoTime() - start, code.length(), error);
+        }
     }
 
     public YuScope getRoot() {
         return root;
     }
 
+    /**
+     * Estimate memory used by this tree
+     *
+     * @return A new report
+     */
+    public YuTreeMemoryReport getMemoryReport() {
+        return YuTreeMemoryReport.of(root);
+    }
+
+    /**
+     * Get current token as a name. Names are interned because the same names repeat in many trees
+     */
+    private String identifier() {
+        return tokenizer.getTokenString().intern();
+    }
+
+    /**
+     * Release unused slots of lists after parsing
+     */
+    private final static class Compactor extends YuTreeScanner<Void> {
+
+        @Override
+        public Void visitCodeBlock(YuCodeBlock codeBlock, Void value) {
+            codeBlock.trimToSize();
+            return super.visitCodeBlock(codeBlock, value);
+        }
+
+        @Override
+        public Void visitExpression(YuExpression expr, Void value) {
+            expr.trimToSize();
+            return super.visitExpression(expr, value);
+        }
+
+        @Override
+        public Void visitConditionalExpression(YuConditionalExpression expr, Void value) {
+            expr.trimToSize();
+            return super.visitConditionalExpression(expr, value);
+        }
+
+        @Override
+        public Void visitFunctionCall(YuFunctionCall call, Void value) {
+            call.trimToSize();
+            return super.visitFunctionCall(call, value);
+        }
+
+        @Override
+        public Void visitFunction(YuFunction function, Void value) {
+            function.trimToSize();
+            return super.visitFunction(function, value);
+        }
+
+    }
+
     private YuCodeBlock parseCodeBlock(boolean outside, boolean exitOnEnd) throws YuSyntaxError {
         YuCodeBlock block = outside ? new YuScope() : new YuCodeBlock();
         while (tokenizer.nextToken() != YuTokens.EOF) {
@@ -81,11 +170,11 @@ public final class YuTree {
                     break;
                 }
                 case ENDCODE: {
-                    block.addChild(new YuEndcode());
+                    block.addChild(ENDCODE);
                     break;
                 }
                 case BREAK: {
-                    block.addChild(new YuBreak());
+                    block.addChild(BREAK);
                     break;
                 }
                 case FUNCTION: {
@@ -125,12 +214,25 @@ public final class YuTree {
         if (tokenizer.nextToken() != YuTokens.IDENTIFIER) {
             throw new YuSyntaxError("Identifier expected");
         }
-        String moduleOrFunction = tokenizer.getTokenString();
+        String moduleOrFunction = identifier();
         YuTokens next = tokenizer.nextToken();
+        boolean pure = false;
+        if (next == YuTokens.IDENTIFIER && moduleOrFunction.equals("pure")) {
+            // fn pure name(...): results are cached by argument values
+            pure = true;
+            moduleOrFunction = identifier();
+            if ((next = tokenizer.nextToken()) != YuTokens.LPAREN) {
+                throw new YuSyntaxError("'(' expected");
+            }
+        }
         if (next == YuTokens.LPAREN) {
             YuFunction function = new YuFunction();
             function.setName(moduleOrFunction);
-            return parseFunctionExactly(function);
+            parseFunctionExactly(function);
+            if (pure) {
+                function.setMemoCapacity(YuFunction.DEFAULT_MEMO_CAPACITY);
+            }
+            return function;
         } else if (next == YuTokens.DOT) {
             YuFunctionCall call = parseFunctionCall();
             YuModuleFunctionCall moduleFunctionCall = new YuModuleFunctionCall();
@@ -156,10 +258,10 @@ public final class YuTree {
                 if (next != YuTokens.IDENTIFIER) {
                     throw new YuSyntaxError("Identifier expected");
                 }
-                function.addParameter(tokenizer.getTokenString());
+                function.addParameter(identifier());
                 function.markReturnPosition();
             } else {
-                function.addParameter(tokenizer.getTokenString());
+                function.addParameter(identifier());
             }
             next = tokenizer.nextToken();
             if (next == YuTokens.COMMA) {
@@ -313,7 +415,7 @@ public final class YuTree {
         }
         assignment.setVariableType(tokenizer.getTokenString());
         if (tokenizer.nextToken() == YuTokens.IDENTIFIER) {
-            assignment.setVariableName(tokenizer.getTokenString());
+            assignment.setVariableName(identifier());
         } else {
             throw new YuSyntaxError("Identifier expected");
         }
@@ -329,7 +431,7 @@ public final class YuTree {
         if (tokenizer.nextToken() != YuTokens.IDENTIFIER) {
             throw new YuSyntaxError("Identifier expected");
         }
-        call.setFunctionName(tokenizer.getTokenString());
+        call.setFunctionName(identifier());
         YuTokens next = tokenizer.nextToken();
         if (next == YuTokens.DOT) {
             YuModuleFunctionCall newCall = new YuModuleFunctionCall();
@@ -339,7 +441,7 @@ public final class YuTree {
             if (next != YuTokens.IDENTIFIER) {
                 throw new YuSyntaxError("Identifier expected");
             }
-            call.setFunctionName(tokenizer.getTokenString());
+            call.setFunctionName(identifier());
             next = tokenizer.nextToken();
         }
         if (next != YuTokens.LPAREN) {
@@ -479,17 +581,17 @@ public final class YuTree {
                 value.setString(tokenizer.getTokenString());
                 break;
             case VARIABLE_PREFIX:
-                String prefix = tokenizer.getTokenString();
+                String prefix = identifier();
                 if (tokenizer.nextToken() != YuTokens.DOT) {
                     throw new YuSyntaxError("'.' expected");
                 }
                 if (tokenizer.nextToken() != YuTokens.IDENTIFIER) {
                     throw new YuSyntaxError("Identifier expected");
                 }
-                value.setVariableName(prefix + "." + tokenizer.getTokenString());
+                value.setVariableName((prefix + "." + tokenizer.getTokenString()).intern());
                 break;
             case IDENTIFIER:
-                value.setVariableName(tokenizer.getTokenString());
+                value.setVariableName(identifier());
                 break;
             case TRUE:
                 value.setBool(true);
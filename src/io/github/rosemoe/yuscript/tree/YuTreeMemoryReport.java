@@ -0,0 +1,351 @@
+/*
+ * Copyright 2020 Rose2073
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.rosemoe.yuscript.tree;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import io.github.rosemoe.yuscript.ir.YuProgram;
+import io.github.rosemoe.yuscript.util.CompactList;
+
+/**
+ * Estimated memory used by a syntax tree.
+ * Sizes assume a 64-bit JVM with compressed references, and are only meant for comparing trees
+ * and finding large ones. Objects shared by several nodes are counted once.
+ * Names are interned by the parser and shared between trees, so they are reported separately.
+ *
+ * @author Rose
+ * @see YuTree#getMemoryReport()
+ */
+public final class YuTreeMemoryReport {
+
+    private final static int OBJECT_HEADER = 12;
+
+    private final static int ARRAY_HEADER = 16;
+
+    private final static int REFERENCE = 4;
+
+    private final static ClassValue<Integer> SHALLOW_SIZES = new ClassValue<Integer>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            long size = OBJECT_HEADER;
+            for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (!Modifier.isStatic(field.getModifiers())) {
+                        size += fieldSize(field.getType());
+                    }
+                }
+            }
+            return (int) align(size);
+        }
+    };
+
+    private final Map<String, Integer> nodeCounts = new TreeMap<>();
+
+    private int nodeCount;
+
+    private long nodeBytes;
+
+    private int listCount;
+
+    private long listBytes;
+
+    private int unusedListSlots;
+
+    private long stringBytes;
+
+    private int programCount;
+
+    private long programBytes;
+
+    private YuTreeMemoryReport() {
+    }
+
+    static YuTreeMemoryReport of(YuNode root) {
+        YuTreeMemoryReport report = new YuTreeMemoryReport();
+        root.accept(new Measurer(report), null);
+        return report;
+    }
+
+    private static int fieldSize(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        } else if (type == int.class || type == float.class) {
+            return 4;
+        } else if (type == short.class || type == char.class) {
+            return 2;
+        } else if (type == byte.class || type == boolean.class) {
+            return 1;
+        }
+        return REFERENCE;
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    /**
+     * @return Count of nodes
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return Count of nodes by simple class name
+     */
+    public Map<String, Integer> getNodeCounts() {
+        return nodeCounts;
+    }
+
+    /**
+     * @return Estimated bytes of nodes themselves
+     */
+    public long getNodeBytes() {
+        return nodeBytes;
+    }
+
+    /**
+     * @return Count of child lists
+     */
+    public int getListCount() {
+        return listCount;
+    }
+
+    /**
+     * @return Estimated bytes of child lists and their arrays
+     */
+    public long getListBytes() {
+        return listBytes;
+    }
+
+    /**
+     * @return Count of allocated but unused slots in child lists
+     */
+    public int getUnusedListSlots() {
+        return unusedListSlots;
+    }
+
+    /**
+     * @return Estimated bytes of names and string constants. Interned names are shared with other trees
+     */
+    public long getStringBytes() {
+        return stringBytes;
+    }
+
+    /**
+     * @return Count of code blocks compiled by the virtual machine
+     */
+    public int getProgramCount() {
+        return programCount;
+    }
+
+    /**
+     * @return Estimated bytes of programs compiled from code blocks, without the nodes they refer to
+     */
+    public long getProgramBytes() {
+        return programBytes;
+    }
+
+    /**
+     * @return Estimated bytes owned by the tree, without strings
+     */
+    public long getTotalBytes() {
+        return nodeBytes + listBytes + programBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "YuTreeMemoryReport{nodes=" + nodeCount + ", nodeBytes=" + nodeBytes + ", lists=" + listCount +
+                ", listBytes=" + listBytes + ", unusedListSlots=" + unusedListSlots + ", stringBytes=" + stringBytes +
+                ", programs=" + programCount + ", programBytes=" + programBytes +
+                ", totalBytes=" + getTotalBytes() + ", nodeCounts=" + nodeCounts + "}";
+    }
+
+    private final static class Measurer extends YuTreeScanner<Void> {
+
+        private final YuTreeMemoryReport report;
+
+        private final Map<Object, Boolean> seen = new IdentityHashMap<>();
+
+        Measurer(YuTreeMemoryReport report) {
+            this.report = report;
+        }
+
+        private boolean node(YuNode node) {
+            if (seen.put(node, Boolean.TRUE) != null) {
+                return false;
+            }
+            report.nodeCount++;
+            report.nodeBytes += SHALLOW_SIZES.get(node.getClass());
+            report.nodeCounts.merge(node.getClass().getSimpleName(), 1, Integer::sum);
+            return true;
+        }
+
+        private void list(List<?> list) {
+            // The shared empty list costs nothing
+            if (list == null || list == Collections.emptyList() || seen.put(list, Boolean.TRUE) != null) {
+                return;
+            }
+            int capacity = list instanceof CompactList ? ((CompactList<?>) list).capacity() : list.size();
+            report.listCount++;
+            report.listBytes += SHALLOW_SIZES.get(list.getClass());
+            if (capacity > 0) {
+                report.listBytes += align(ARRAY_HEADER + (long) REFERENCE * capacity);
+            }
+            report.unusedListSlots += capacity - list.size();
+        }
+
+        private void program(YuProgram program) {
+            if (program == null) {
+                return;
+            }
+            report.programCount++;
+            report.programBytes += SHALLOW_SIZES.get(YuProgram.class) + align(ARRAY_HEADER + 4L * program.getCodeLength())
+                    + align(ARRAY_HEADER + (long) REFERENCE * program.getConstantCount());
+        }
+
+        private void string(String str) {
+            if (str == null || seen.put(str, Boolean.TRUE) != null) {
+                return;
+            }
+            // String object and its char array
+            report.stringBytes += 24 + align(ARRAY_HEADER + 2L * str.length());
+        }
+
+        @Override
+        public Void visitCodeBlock(YuCodeBlock codeBlock, Void value) {
+            if (!node(codeBlock)) {
+                return null;
+            }
+            list(codeBlock.getChildren());
+            list(codeBlock.getFunctions());
+            program(codeBlock.getCompiledProgram());
+            if (!codeBlock.getFunctions().isEmpty()) {
+                // Map of functions by name
+                report.listBytes += 48 + align(ARRAY_HEADER + REFERENCE * 4L) + 56L * codeBlock.getFunctions().size();
+            }
+            return super.visitCodeBlock(codeBlock, value);
+        }
+
+        @Override
+        public Void visitExpression(YuExpression expr, Void value) {
+            if (!node(expr)) {
+                return null;
+            }
+            list(expr.getChildren());
+            list(expr.getOperators());
+            return super.visitExpression(expr, value);
+        }
+
+        @Override
+        public Void visitConditionalExpression(YuConditionalExpression expr, Void value) {
+            if (!node(expr)) {
+                return null;
+            }
+            list(expr.getChildren());
+            list(expr.getOperators());
+            return super.visitConditionalExpression(expr, value);
+        }
+
+        @Override
+        public Void visitFunctionCall(YuFunctionCall call, Void value) {
+            if (!node(call)) {
+                return null;
+            }
+            string(call.getFunctionName());
+            list(call.getArguments());
+            return super.visitFunctionCall(call, value);
+        }
+
+        @Override
+        public Void visitModuleFunctionCall(YuModuleFunctionCall functionCall, Void value) {
+            string(functionCall.getModuleName());
+            return super.visitModuleFunctionCall(functionCall, value);
+        }
+
+        @Override
+        public Void visitFunction(YuFunction function, Void value) {
+            if (!node(function)) {
+                return null;
+            }
+            string(function.getName());
+            list(function.getParameterNames());
+            for (String name : function.getParameterNames()) {
+                string(name);
+            }
+            return super.visitFunction(function, value);
+        }
+
+        @Override
+        public Void visitValue(YuValue val, Void value) {
+            if (node(val)) {
+                string(val.getString());
+                string(val.getVariableName());
+                string(val.variableKey);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitAssignment(YuAssignment assign, Void value) {
+            if (!node(assign)) {
+                return null;
+            }
+            string(assign.getVariableName());
+            return super.visitAssignment(assign, value);
+        }
+
+        @Override
+        public Void visitCondition(YuCondition condition, Void value) {
+            return node(condition) ? super.visitCondition(condition, value) : null;
+        }
+
+        @Override
+        public Void visitIfTree(YuIfTree tree, Void value) {
+            return node(tree) ? super.visitIfTree(tree, value) : null;
+        }
+
+        @Override
+        public Void visitWhileTree(YuWhileTree tree, Void value) {
+            return node(tree) ? super.visitWhileTree(tree, value) : null;
+        }
+
+        @Override
+        public Void visitForTree(YuForTree tree, Void value) {
+            return node(tree) ? super.visitForTree(tree, value) : null;
+        }
+
+        @Override
+        public Void visitBreak(YuBreak codeBlock, Void value) {
+            node(codeBlock);
+            return null;
+        }
+
+        @Override
+        public Void visitEndcode(YuEndcode endcode, Void value) {
+            node(endcode);
+            return null;
+        }
+
+    }
+
+}
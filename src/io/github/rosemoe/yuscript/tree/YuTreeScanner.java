@@ -0,0 +1,135 @@
+/*
+ * Copyright 2020 Rose2073
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.rosemoe.yuscript.tree;
+
+/**
+ * Visitor that visits all nodes of a tree, children first in source order.
+ * Override methods to handle nodes and call the super method to continue into children.
+ *
+ * @author Rose
+ */
+public class YuTreeScanner<T> implements YuTreeVisitor<Void, T> {
+
+    private void scan(YuNode node, T value) {
+        if (node != null) {
+            node.accept(this, value);
+        }
+    }
+
+    @Override
+    public Void visitAssignment(YuAssignment assign, T value) {
+        scan(assign.getValue(), value);
+        return null;
+    }
+
+    @Override
+    public Void visitScope(YuScope scope, T value) {
+        return visitCodeBlock(scope, value);
+    }
+
+    @Override
+    public Void visitCodeBlock(YuCodeBlock codeBlock, T value) {
+        for (YuFunction function : codeBlock.getFunctions()) {
+            scan(function, value);
+        }
+        for (YuNode child : codeBlock.getChildren()) {
+            scan(child, value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBreak(YuBreak codeBlock, T value) {
+        return null;
+    }
+
+    @Override
+    public Void visitCondition(YuCondition condition, T value) {
+        scan(condition.getLeft(), value);
+        scan(condition.getRight(), value);
+        return null;
+    }
+
+    @Override
+    public Void visitConditionalExpression(YuConditionalExpression expr, T value) {
+        for (YuCondition condition : expr.getChildren()) {
+            scan(condition, value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitEndcode(YuEndcode endcode, T value) {
+        return null;
+    }
+
+    @Override
+    public Void visitExpression(YuExpression expr, T value) {
+        for (YuValue child : expr.getChildren()) {
+            scan(child, value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitForTree(YuForTree tree, T value) {
+        scan(tree.getDest(), value);
+        scan(tree.getSrc(), value);
+        scan(tree.getCodeBlock(), value);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionCall(YuFunctionCall call, T value) {
+        for (YuExpression argument : call.getArguments()) {
+            scan(argument, value);
+        }
+        scan(call.getAdditionalCodeBlock(), value);
+        return null;
+    }
+
+    @Override
+    public Void visitIfTree(YuIfTree tree, T value) {
+        scan(tree.getCondition(), value);
+        scan(tree.getCodeBlock(), value);
+        scan(tree.getFallbackCodeBlock(), value);
+        return null;
+    }
+
+    @Override
+    public Void visitValue(YuValue val, T value) {
+        return null;
+    }
+
+    @Override
+    public Void visitWhileTree(YuWhileTree tree, T value) {
+        scan(tree.getCondition(), value);
+        scan(tree.getCodeBlock(), value);
+        return null;
+    }
+
+    @Override
+    public Void visitFunction(YuFunction function, T value) {
+        scan(function.getFunctionBody(), value);
+        return null;
+    }
+
+    @Override
+    public Void visitModuleFunctionCall(YuModuleFunctionCall functionCall, T value) {
+        return visitFunctionCall(functionCall, value);
+    }
+
+}
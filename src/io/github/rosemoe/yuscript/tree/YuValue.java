@@ -72,7 +72,7 @@ public class YuValue implements YuNode {
                 default:
                     throw new IllegalArgumentException("unknown variable type");
             }
-            variableKey = variableName.substring(index + 1);
+            variableKey = variableName.substring(index + 1).intern();
         } else {
             variableType = YuVariableType.LOCAL;
             variableKey = variableName;
@@ -0,0 +1,765 @@
+/*
+ * Copyright 2020 Rose2073
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.rosemoe.yuscript.util;
+
+import java.util.Arrays;
+
+/**
+ * Typed access to arrays without {@link java.lang.reflect.Array}.
+ * Use {@link #of(Object)} once to get the accessor for an array, then access elements through it.
+ * Values written to primitive arrays are converted from any {@link Number}, {@link Character} or numeric string.
+ * Bulk operations run on the primitive elements directly.
+ *
+ * @author Rose
+ */
+public abstract class ArrayAccess {
+
+    private ArrayAccess() {
+    }
+
+    /**
+     * Get the accessor for the given array
+     *
+     * @param array The array
+     * @return The accessor, or null if the object is not an array
+     */
+    public static ArrayAccess of(Object array) {
+        if (array instanceof Object[]) {
+            return OBJECT;
+        } else if (array instanceof int[]) {
+            return INT;
+        } else if (array instanceof long[]) {
+            return LONG;
+        } else if (array instanceof double[]) {
+            return DOUBLE;
+        } else if (array instanceof byte[]) {
+            return BYTE;
+        } else if (array instanceof char[]) {
+            return CHAR;
+        } else if (array instanceof float[]) {
+            return FLOAT;
+        } else if (array instanceof short[]) {
+            return SHORT;
+        } else if (array instanceof boolean[]) {
+            return BOOLEAN;
+        }
+        return null;
+    }
+
+    public abstract int length(Object array);
+
+    public abstract Object get(Object array, int index);
+
+    public abstract void set(Object array, int index, Object value);
+
+    public abstract void fill(Object array, int from, int to, Object value);
+
+    /**
+     * @return Sum of elements in range. Long for integral arrays and Double for floating point arrays
+     */
+    public abstract Object sum(Object array, int from, int to);
+
+    /**
+     * @return Min element in range, or null if the range is empty
+     */
+    public abstract Object min(Object array, int from, int to);
+
+    /**
+     * @return Max element in range, or null if the range is empty
+     */
+    public abstract Object max(Object array, int from, int to);
+
+    public abstract void sort(Object array, int from, int to);
+
+    /**
+     * Search the key in a sorted range
+     *
+     * @return Same as {@link Arrays#binarySearch(int[], int, int, int)}
+     */
+    public abstract int binarySearch(Object array, int from, int to, Object key);
+
+    private static long toLong(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        } else if (value instanceof Character) {
+            return (Character) value;
+        } else if (value == null) {
+            return 0;
+        }
+        return Long.parseLong(value.toString());
+    }
+
+    private static double toDouble(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        } else if (value instanceof Character) {
+            return (Character) value;
+        } else if (value == null) {
+            return 0;
+        }
+        return Double.parseDouble(value.toString());
+    }
+
+    /**
+     * Compare numbers by value, so that Integer and Long elements can be mixed. Other values must be Comparable
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static int compare(Object a, Object b) {
+        if (a instanceof Number && b instanceof Number) {
+            if (a instanceof Double || a instanceof Float || b instanceof Double || b instanceof Float) {
+                return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+            }
+            return Long.compare(((Number) a).longValue(), ((Number) b).longValue());
+        }
+        return ((Comparable) a).compareTo(b);
+    }
+
+    private static UnsupportedOperationException unsupported(String operation, String type) {
+        return new UnsupportedOperationException(operation + " is not supported for " + type + " arrays");
+    }
+
+    private final static ArrayAccess OBJECT = new ArrayAccess() {
+
+        @Override
+        public int length(Object array) {
+            return ((Object[]) array).length;
+        }
+
+        @Override
+        public Object get(Object array, int index) {
+            return ((Object[]) array)[index];
+        }
+
+        @Override
+        public void set(Object array, int index, Object value) {
+            ((Object[]) array)[index] = value;
+        }
+
+        @Override
+        public void fill(Object array, int from, int to, Object value) {
+            Arrays.fill((Object[]) array, from, to, value);
+        }
+
+        @Override
+        public Object sum(Object array, int from, int to) {
+            Object[] a = (Object[]) array;
+            long longSum = 0;
+            double doubleSum = 0;
+            boolean floating = false;
+            for (int i = from; i < to; i++) {
+                Object value = a[i];
+                if (value instanceof Double || value instanceof Float) {
+                    floating = true;
+                    doubleSum += ((Number) value).doubleValue();
+                } else {
+                    longSum += toLong(value);
+                }
+            }
+            return floating ? (Object) (doubleSum + longSum) : (Object) longSum;
+        }
+
+        @Override
+        public Object min(Object array, int from, int to) {
+            Object[] a = (Object[]) array;
+            Object result = null;
+            for (int i = from; i < to; i++) {
+                Object value = a[i];
+                if (value != null && (result == null || compare(value, result) < 0)) {
+                    result = value;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public Object max(Object array, int from, int to) {
+            Object[] a = (Object[]) array;
+            Object result = null;
+            for (int i = from; i < to; i++) {
+                Object value = a[i];
+                if (value != null && (result == null || compare(value, result) > 0)) {
+                    result = value;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public void sort(Object array, int from, int to) {
+            Arrays.sort((Object[]) array, from, to);
+        }
+
+        @Override
+        public int binarySearch(Object array, int from, int to, Object key) {
+            return Arrays.binarySearch((Object[]) array, from, to, key);
+        }
+    };
+
+    private final static ArrayAccess INT = new ArrayAccess() {
+
+        @Override
+        public int length(Object array) {
+            return ((int[]) array).length;
+        }
+
+        @Override
+        public Object get(Object array, int index) {
+            return ((int[]) array)[index];
+        }
+
+        @Override
+        public void set(Object array, int index, Object value) {
+            ((int[]) array)[index] = (int) toLong(value);
+        }
+
+        @Override
+        public void fill(Object array, int from, int to, Object value) {
+            Arrays.fill((int[]) array, from, to, (int) toLong(value));
+        }
+
+        @Override
+        public Object sum(Object array, int from, int to) {
+            int[] a = (int[]) array;
+            long sum = 0;
+            for (int i = from; i < to; i++) {
+                sum += a[i];
+            }
+            return sum;
+        }
+
+        @Override
+        public Object min(Object array, int from, int to) {
+            if (from >= to) {
+                return null;
+            }
+            int[] a = (int[]) array;
+            int result = a[from];
+            for (int i = from + 1; i < to; i++) {
+                result = Math.min(result, a[i]);
+            }
+            return result;
+        }
+
+        @Override
+        public Object max(Object array, int from, int to) {
+            if (from >= to) {
+                return null;
+            }
+            int[] a = (int[]) array;
+            int result = a[from];
+            for (int i = from + 1; i < to; i++) {
+                result = Math.max(result, a[i]);
+            }
+            return result;
+        }
+
+        @Override
+        public void sort(Object array, int from, int to) {
+            Arrays.sort((int[]) array, from, to);
+        }
+
+        @Override
+        public int binarySearch(Object array, int from, int to, Object key) {
+            return Arrays.binarySearch((int[]) array, from, to, (int) toLong(key));
+        }
+    };
+
+    private final static ArrayAccess LONG = new ArrayAccess() {
+
+        @Override
+        public int length(Object array) {
+            return ((long[]) array).length;
+        }
+
+        @Override
+        public Object get(Object array, int index) {
+            return ((long[]) array)[index];
+        }
+
+        @Override
+        public void set(Object array, int index, Object value) {
+            ((long[]) array)[index] = toLong(value);
+        }
+
+        @Override
+        public void fill(Object array, int from, int to, Object value) {
+            Arrays.fill((long[]) array, from, to, toLong(value));
+        }
+
+        @Override
+        public Object sum(Object array, int from, int to) {
+            long[] a = (long[]) array;
+            long sum = 0;
+            for (int i = from; i < to; i++) {
+                sum += a[i];
+            }
+            return sum;
+        }
+
+        @Override
+        public Object min(Object array, int from, int to) {
+            if (from >= to) {
+                return null;
+            }
+            long[] a = (long[]) array;
+            long result = a[from];
+            for (int i = from + 1; i < to; i++) {
+                result = Math.min(result, a[i]);
+            }
+            return result;
+        }
+
+        @Override
+        public Object max(Object array, int from, int to) {
+            if (from >= to) {
+                return null;
+            }
+            long[] a = (long[]) array;
+            long result = a[from];
+            for (int i = from + 1; i < to; i++) {
+                result = Math.max(result, a[i]);
+            }
+            return result;
+        }
+
+        @Override
+        public void sort(Object array, int from, int to) {
+            Arrays.sort((long[]) array, from, to);
+        }
+
+        @Override
+        public int binarySearch(Object array, int from, int to, Object key) {
+            return Arrays.binarySearch((long[]) array, from, to, toLong(key));
+        }
+    };
+
+    private final static ArrayAccess DOUBLE = new ArrayAccess() {
+
+        @Override
+        public int length(Object array) {
+            return ((double[]) array).length;
+        }
+
+        @Override
+        public Object get(Object array, int index) {
+            return ((double[]) array)[index];
+        }
+
+        @Override
+        public void set(Object array, int index, Object value) {
+            ((double[]) array)[index] = toDouble(value);
+        }
+
+        @Override
+        public void fill(Object array, int from, int to, Object value) {
+            Arrays.fill((double[]) array, from, to, toDouble(value));
+        }
+
+        @Override
+        public Object sum(Object array, int from, int to) {
+            double[] a = (double[]) array;
+            double sum = 0;
+            for (int i = from; i < to; i++) {
+                sum += a[i];
+            }
+            return sum;
+        }
+
+        @Override
+        public Object min(Object array, int from, int to) {
+            if (from >= to) {
+                return null;
+            }
+            double[] a = (double[]) array;
+            double result = a[from];
+            for (int i = from + 1; i < to; i++) {
+                result = Math.min(result, a[i]);
+            }
+            return result;
+        }
+
+        @Override
+        public Object max(Object array, int from, int to) {
+            if (from >= to) {
+                return null;
+            }
+            double[] a = (double[]) array;
+            double result = a[from];
+            for (int i = from + 1; i < to; i++) {
+                result = Math.max(result, a[i]);
+            }
+            return result;
+        }
+
+        @Override
+        public void sort(Object array, int from, int to) {
+            Arrays.sort((double[]) array, from, to);
+        }
+
+        @Override
+        public int binarySearch(Object array, int from, int to, Object key) {
+            return Arrays.binarySearch((double[]) array, from, to, toDouble(key));
+        }
+    };
+
+    private final static ArrayAccess BYTE = new ArrayAccess() {
+
+        @Override
+        public int length(Object array) {
+            return ((byte[]) array).length;
+        }
+
+        @Override
+        public Object get(Object array, int index) {
+            return ((byte[]) array)[index];
+        }
+
+        @Override
+        public void set(Object array, int index, Object value) {
+            ((byte[]) array)[index] = (byte) toLong(value);
+        }
+
+        @Override
+        public void fill(Object array, int from, int to, Object value) {
+            Arrays.fill((byte[]) array, from, to, (byte) toLong(value));
+        }
+
+        @Override
+        public Object sum(Object array, int from, int to) {
+            byte[] a = (byte[]) array;
+            long sum = 0;
+            for (int i = from; i < to; i++) {
+                sum += a[i];
+            }
+            return sum;
+        }
+
+        @Override
+        public Object min(Object array, int from, int to) {
+            if (from >= to) {
+                return null;
+            }
+            byte[] a = (byte[]) array;
+            byte result = a[from];
+            for (int i = from + 1; i < to; i++) {
+                if (a[i] < result) {
+                    result = a[i];
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public Object max(Object array, int from, int to) {
+            if (from >= to) {
+                return null;
+            }
+            byte[] a = (byte[]) array;
+            byte result = a[from];
+            for (int i = from + 1; i < to; i++) {
+                if (a[i] > result) {
+                    result = a[i];
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public void sort(Object array, int from, int to) {
+            Arrays.sort((byte[]) array, from, to);
+        }
+
+        @Override
+        public int binarySearch(Object array, int from, int to, Object key) {
+            return Arrays.binarySearch((byte[]) array, from, to, (byte) toLong(key));
+        }
+    };
+
+    private final static ArrayAccess CHAR = new ArrayAccess() {
+
+        @Override
+        public int length(Object array) {
+            return ((char[]) array).length;
+        }
+
+        @Override
+        public Object get(Object array, int index) {
+            return ((char[]) array)[index];
+        }
+
+        @Override
+        public void set(Object array, int index, Object value) {
+            ((char[]) array)[index] = toChar(value);
+        }
+
+        @Override
+        public void fill(Object array, int from, int to, Object value) {
+            Arrays.fill((char[]) array, from, to, toChar(value));
+        }
+
+        private char toChar(Object value) {
+            if (value instanceof CharSequence && ((CharSequence) value).length() == 1) {
+                return ((CharSequence) value).charAt(0);
+            }
+            return (char) toLong(value);
+        }
+
+        @Override
+        public Object sum(Object array, int from, int to) {
+            char[] a = (char[]) array;
+            long sum = 0;
+            for (int i = from; i < to; i++) {
+                sum += a[i];
+            }
+            return sum;
+        }
+
+        @Override
+        public Object min(Object array, int from, int to) {
+            if (from >= to) {
+                return null;
+            }
+            char[] a = (char[]) array;
+            char result = a[from];
+            for (int i = from + 1; i < to; i++) {
+                if (a[i] < result) {
+                    result = a[i];
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public Object max(Object array, int from, int to) {
+            if (from >= to) {
+                return null;
+            }
+            char[] a = (char[]) array;
+            char result = a[from];
+            for (int i = from + 1; i < to; i++) {
+                if (a[i] > result) {
+                    result = a[i];
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public void sort(Object array, int from, int to) {
+            Arrays.sort((char[]) array, from, to);
+        }
+
+        @Override
+        public int binarySearch(Object array, int from, int to, Object key) {
+            return Arrays.binarySearch((char[]) array, from, to, toChar(key));
+        }
+    };
+
+    private final static ArrayAccess FLOAT = new ArrayAccess() {
+
+        @Override
+        public int length(Object array) {
+            return ((float[]) array).length;
+        }
+
+        @Override
+        public Object get(Object array, int index) {
+            return ((float[]) array)[index];
+        }
+
+        @Override
+        public void set(Object array, int index, Object value) {
+            ((float[]) array)[index] = (float) toDouble(value);
+        }
+
+        @Override
+        public void fill(Object array, int from, int to, Object value) {
+            Arrays.fill((float[]) array, from, to, (float) toDouble(value));
+        }
+
+        @Override
+        public Object sum(Object array, int from, int to) {
+            float[] a = (float[]) array;
+            double sum = 0;
+            for (int i = from; i < to; i++) {
+                sum += a[i];
+            }
+            return sum;
+        }
+
+        @Override
+        public Object min(Object array, int from, int to) {
+            if (from >= to) {
+                return null;
+            }
+            float[] a = (float[]) array;
+            float result = a[from];
+            for (int i = from + 1; i < to; i++) {
+                result = Math.min(result, a[i]);
+            }
+            return result;
+        }
+
+        @Override
+        public Object max(Object array, int from, int to) {
+            if (from >= to) {
+                return null;
+            }
+            float[] a = (float[]) array;
+            float result = a[from];
+            for (int i = from + 1; i < to; i++) {
+                result = Math.max(result, a[i]);
+            }
+            return result;
+        }
+
+        @Override
+        public void sort(Object array, int from, int to) {
+            Arrays.sort((float[]) array, from, to);
+        }
+
+        @Override
+        public int binarySearch(Object array, int from, int to, Object key) {
+            return Arrays.binarySearch((float[]) array, from, to, (float) toDouble(key));
+        }
+    };
+
+    private final static ArrayAccess SHORT = new ArrayAccess() {
+
+        @Override
+        public int length(Object array) {
+            return ((short[]) array).length;
+        }
+
+        @Override
+        public Object get(Object array, int index) {
+            return ((short[]) array)[index];
+        }
+
+        @Override
+        public void set(Object array, int index, Object value) {
+            ((short[]) array)[index] = (short) toLong(value);
+        }
+
+        @Override
+        public void fill(Object array, int from, int to, Object value) {
+            Arrays.fill((short[]) array, from, to, (short) toLong(value));
+        }
+
+        @Override
+        public Object sum(Object array, int from, int to) {
+            short[] a = (short[]) array;
+            long sum = 0;
+            for (int i = from; i < to; i++) {
+                sum += a[i];
+            }
+            return sum;
+        }
+
+        @Override
+        public Object min(Object array, int from, int to) {
+            if (from >= to) {
+                return null;
+            }
+            short[] a = (short[]) array;
+            short result = a[from];
+            for (int i = from + 1; i < to; i++) {
+                if (a[i] < result) {
+                    result = a[i];
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public Object max(Object array, int from, int to) {
+            if (from >= to) {
+                return null;
+            }
+            short[] a = (short[]) array;
+            short result = a[from];
+            for (int i = from + 1; i < to; i++) {
+                if (a[i] > result) {
+                    result = a[i];
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public void sort(Object array, int from, int to) {
+            Arrays.sort((short[]) array, from, to);
+        }
+
+        @Override
+        public int binarySearch(Object array, int from, int to, Object key) {
+            return Arrays.binarySearch((short[]) array, from, to, (short) toLong(key));
+        }
+    };
+
+    private final static ArrayAccess BOOLEAN = new ArrayAccess() {
+
+        @Override
+        public int length(Object array) {
+            return ((boolean[]) array).length;
+        }
+
+        @Override
+        public Object get(Object array, int index) {
+            return ((boolean[]) array)[index];
+        }
+
+        @Override
+        public void set(Object array, int index, Object value) {
+            ((boolean[]) array)[index] = toBoolean(value);
+        }
+
+        @Override
+        public void fill(Object array, int from, int to, Object value) {
+            Arrays.fill((boolean[]) array, from, to, toBoolean(value));
+        }
+
+        private boolean toBoolean(Object value) {
+            return value instanceof Boolean ? (Boolean) value : Boolean.parseBoolean(String.valueOf(value));
+        }
+
+        @Override
+        public Object sum(Object array, int from, int to) {
+            throw unsupported("sum", "boolean");
+        }
+
+        @Override
+        public Object min(Object array, int from, int to) {
+            throw unsupported("min", "boolean");
+        }
+
+        @Override
+        public Object max(Object array, int from, int to) {
+            throw unsupported("max", "boolean");
+        }
+
+        @Override
+        public void sort(Object array, int from, int to) {
+            throw unsupported("sort", "boolean");
+        }
+
+        @Override
+        public int binarySearch(Object array, int from, int to, Object key) {
+            throw unsupported("binary search", "boolean");
+        }
+    };
+
+}
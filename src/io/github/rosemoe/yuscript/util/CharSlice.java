@@ -0,0 +1,246 @@
+/*
+ * Copyright 2020 Rose2073
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.rosemoe.yuscript.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A read-only view of a range of characters in another CharSequence.
+ * Taking a slice of a slice does not copy any character. The text is copied only by {@link #toString()},
+ * and the resulting string is remembered.
+ * Two slices are equal if they have the same characters.
+ * The source must not be modified while slices of it are in use.
+ *
+ * @author Rose
+ */
+public final class CharSlice implements CharSequence {
+
+    private final CharSequence source;
+
+    private final int start;
+
+    private final int end;
+
+    private String string;
+
+    private int hash;
+
+    private CharSlice(CharSequence source, int start, int end) {
+        this.source = source;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Create a view of the given range of text
+     *
+     * @param text  Text to view
+     * @param start Start index, inclusive
+     * @param end   End index, exclusive
+     * @return The slice
+     * @throws IndexOutOfBoundsException If the range is invalid
+     */
+    public static CharSlice of(CharSequence text, int start, int end) {
+        Objects.requireNonNull(text);
+        if (start < 0 || end > text.length() || start > end) {
+            throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + text.length());
+        }
+        if (text instanceof CharSlice) {
+            CharSlice slice = (CharSlice) text;
+            return new CharSlice(slice.source, slice.start + start, slice.start + end);
+        }
+        return new CharSlice(text, start, end);
+    }
+
+    /**
+     * Create a view of the whole text
+     */
+    public static CharSlice of(CharSequence text) {
+        return text instanceof CharSlice ? (CharSlice) text : of(text, 0, text.length());
+    }
+
+    @Override
+    public int length() {
+        return end - start;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= end - start) {
+            throw new IndexOutOfBoundsException("index " + index + ", length " + (end - start));
+        }
+        return source.charAt(start + index);
+    }
+
+    @Override
+    public CharSlice subSequence(int start, int end) {
+        return of(this, start, end);
+    }
+
+    @Override
+    public String toString() {
+        String str = string;
+        if (str == null) {
+            str = source instanceof String ? ((String) source).substring(start, end) : source.subSequence(start, end).toString();
+            string = str;
+        }
+        return str;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj == this || (obj instanceof CharSlice && contentEquals(this, (CharSlice) obj));
+    }
+
+    /**
+     * Same as hash code of the String with the same characters
+     */
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            for (int i = start; i < end; i++) {
+                h = 31 * h + source.charAt(i);
+            }
+            hash = h;
+        }
+        return h;
+    }
+
+    /**
+     * @return Slice without leading and trailing characters not greater than space, like {@link String#trim()}
+     */
+    public CharSlice trim() {
+        return trim(this);
+    }
+
+    public static CharSlice trim(CharSequence text) {
+        int begin = 0, finish = text.length();
+        while (begin < finish && text.charAt(begin) <= ' ') {
+            begin++;
+        }
+        while (finish > begin && text.charAt(finish - 1) <= ' ') {
+            finish--;
+        }
+        return of(text, begin, finish);
+    }
+
+    public static boolean contentEquals(CharSequence a, CharSequence b) {
+        int length = a.length();
+        return length == b.length() && regionMatches(a, 0, b, length);
+    }
+
+    private static boolean regionMatches(CharSequence text, int offset, CharSequence other, int length) {
+        for (int i = 0; i < length; i++) {
+            if (text.charAt(offset + i) != other.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static boolean startsWith(CharSequence text, CharSequence prefix) {
+        if (text instanceof String && prefix instanceof String) {
+            return ((String) text).startsWith((String) prefix);
+        }
+        return prefix.length() <= text.length() && regionMatches(text, 0, prefix, prefix.length());
+    }
+
+    public static boolean endsWith(CharSequence text, CharSequence suffix) {
+        if (text instanceof String && suffix instanceof String) {
+            return ((String) text).endsWith((String) suffix);
+        }
+        int offset = text.length() - suffix.length();
+        return offset >= 0 && regionMatches(text, offset, suffix, suffix.length());
+    }
+
+    /**
+     * Find the target in text
+     *
+     * @return Index of first occurrence at or after from, or -1
+     */
+    public static int indexOf(CharSequence text, CharSequence target, int from) {
+        if (text instanceof String && target instanceof String) {
+            return ((String) text).indexOf((String) target, from);
+        }
+        int length = target.length();
+        int last = text.length() - length;
+        for (int i = Math.max(0, from); i <= last; i++) {
+            if (regionMatches(text, i, target, length)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Split the text around the separator, like {@link String#split(String)} with a literal separator
+     *
+     * @param text      Text to split
+     * @param separator Separator. Must not be empty
+     * @return Slices of text
+     */
+    public static CharSlice[] split(CharSequence text, CharSequence separator) {
+        List<CharSlice> parts = new ArrayList<>();
+        int length = separator.length();
+        int start = 0, index;
+        while ((index = indexOf(text, separator, start)) != -1) {
+            parts.add(of(text, start, index));
+            start = index + length;
+        }
+        parts.add(of(text, start, text.length()));
+        return trimTrailingEmpty(parts);
+    }
+
+    /**
+     * Split the text around matches of the pattern, like {@link Pattern#split(CharSequence)}
+     *
+     * @param text    Text to split
+     * @param pattern The pattern
+     * @return Slices of text
+     */
+    public static CharSlice[] split(CharSequence text, Pattern pattern) {
+        List<CharSlice> parts = new ArrayList<>();
+        Matcher matcher = pattern.matcher(text);
+        int start = 0;
+        while (matcher.find()) {
+            if (matcher.end() == 0) {
+                // A zero-width match at the beginning never produces an empty leading slice
+                continue;
+            }
+            parts.add(of(text, start, matcher.start()));
+            start = matcher.end();
+        }
+        parts.add(of(text, start, text.length()));
+        return trimTrailingEmpty(parts);
+    }
+
+    private static CharSlice[] trimTrailingEmpty(List<CharSlice> parts) {
+        int size = parts.size();
+        while (size > 1 && parts.get(size - 1).length() == 0) {
+            size--;
+        }
+        if (size == 1 && parts.get(0).length() == 0 && parts.size() > 1) {
+            size = 0;
+        }
+        return parts.subList(0, size).toArray(new CharSlice[0]);
+    }
+
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2020 Rose2073
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.rosemoe.yuscript.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Bounded concurrent cache of compiled regular expressions.
+ * Patterns without meta characters are matched with plain string search instead of regex.
+ *
+ * @author Rose
+ */
+public final class PatternCache {
+
+    private final static String META_CHARACTERS = "\\^$.|?*+()[]{}";
+
+    private final static PatternCache DEFAULT = new PatternCache(256);
+
+    private final int capacity;
+
+    private final ConcurrentHashMap<String, CompiledPattern> patterns = new ConcurrentHashMap<>();
+
+    /**
+     * Create a cache
+     *
+     * @param capacity Max count of cached patterns
+     */
+    public PatternCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return The cache shared by built-in functions
+     */
+    public static PatternCache getDefault() {
+        return DEFAULT;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return patterns.size();
+    }
+
+    public void clear() {
+        patterns.clear();
+    }
+
+    /**
+     * Get the compiled form of the regex
+     *
+     * @param regex The regex
+     * @return Compiled pattern
+     * @throws java.util.regex.PatternSyntaxException If the regex is invalid
+     */
+    public CompiledPattern get(String regex) {
+        CompiledPattern pattern = patterns.get(regex);
+        if (pattern == null) {
+            pattern = compile(regex);
+            if (patterns.size() >= capacity) {
+                evict();
+            }
+            patterns.put(regex, pattern);
+        }
+        return pattern;
+    }
+
+    /**
+     * Remove about a quarter of entries. Which ones are removed is unspecified
+     */
+    private void evict() {
+        int count = Math.max(1, capacity >> 2);
+        Iterator<String> iterator = patterns.keySet().iterator();
+        while (count-- > 0 && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Compile the regex without caching it
+     *
+     * @param regex The regex
+     * @return Compiled pattern
+     */
+    public static CompiledPattern compile(String regex) {
+        return new CompiledPattern(regex, Pattern.compile(regex), isLiteral(regex));
+    }
+
+    /**
+     * Check whether the regex only matches itself
+     *
+     * @param regex The regex
+     * @return Whether it is not empty and has no meta character
+     */
+    public static boolean isLiteral(String regex) {
+        if (regex.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < regex.length(); i++) {
+            if (META_CHARACTERS.indexOf(regex.charAt(i)) != -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replace all occurrences of target without regex
+     *
+     * @param input       Input text
+     * @param target      Text to replace. Must not be empty
+     * @param replacement Replacement text
+     * @return The result
+     */
+    public static String replaceLiteral(String input, String target, String replacement) {
+        int index = input.indexOf(target);
+        if (index == -1) {
+            return input;
+        }
+        int length = target.length();
+        StringBuilder sb = new StringBuilder(input.length() + Math.max(0, replacement.length() - length) * 4);
+        int start = 0;
+        do {
+            sb.append(input, start, index).append(replacement);
+            start = index + length;
+        } while ((index = input.indexOf(target, start)) != -1);
+        return sb.append(input, start, input.length()).toString();
+    }
+
+    /**
+     * A compiled regex. Instances are immutable and can be cached anywhere
+     */
+    public static final class CompiledPattern {
+
+        private final String regex;
+
+        private final Pattern pattern;
+
+        private final boolean literal;
+
+        private CompiledPattern(String regex, Pattern pattern, boolean literal) {
+            this.regex = regex;
+            this.pattern = pattern;
+            this.literal = literal;
+        }
+
+        public String getRegex() {
+            return regex;
+        }
+
+        public Pattern getPattern() {
+            return pattern;
+        }
+
+        /**
+         * @return Whether the regex only matches itself
+         */
+        public boolean isLiteral() {
+            return literal;
+        }
+
+        /**
+         * Same as {@link String#replaceAll(String, String)}
+         */
+        public String replaceAll(String input, String replacement) {
+            if (literal && replacement.indexOf('$') == -1 && replacement.indexOf('\\') == -1) {
+                return replaceLiteral(input, regex, replacement);
+            }
+            Matcher matcher = pattern.matcher(input);
+            return matcher.replaceAll(replacement);
+        }
+
+        /**
+         * Same as {@link String#split(String)}
+         */
+        public String[] split(String input) {
+            if (!literal) {
+                return pattern.split(input);
+            }
+            int index = input.indexOf(regex);
+            if (index == -1) {
+                return new String[]{input};
+            }
+            int length = regex.length();
+            List<String> parts = new ArrayList<>();
+            int start = 0;
+            do {
+                parts.add(input.substring(start, index));
+                start = index + length;
+            } while ((index = input.indexOf(regex, start)) != -1);
+            parts.add(input.substring(start));
+            int size = parts.size();
+            while (size > 0 && parts.get(size - 1).isEmpty()) {
+                size--;
+            }
+            return parts.subList(0, size).toArray(new String[0]);
+        }
+
+    }
+
+}
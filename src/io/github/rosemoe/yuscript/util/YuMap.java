@@ -0,0 +1,363 @@
+/*
+ * Copyright 2020 Rose2073
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.rosemoe.yuscript.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Hash map value for scripts.
+ * Keys and values are stored in one array of slots with linear probing,
+ * so lookups do not allocate and there are no entry objects.
+ * Removal shifts following entries back instead of leaving tombstones.
+ * Text keys are stored as {@link String}, so views such as {@link CharSlice} find the same entries as strings.
+ * It is also a {@link java.util.Map} so it can be passed to Java methods directly.
+ * Not thread-safe.
+ *
+ * @author Rose
+ */
+public class YuMap extends AbstractMap<Object, Object> {
+
+    /**
+     * Stored in place of null keys, so that null marks an empty slot
+     */
+    private final static Object NULL_KEY = new Object();
+
+    private final static int MIN_CAPACITY = 8;
+
+    /**
+     * Keys at even indices and values at the odd index after them
+     */
+    private Object[] table;
+
+    private int size;
+
+    private int threshold;
+
+    /**
+     * Count of structural changes, to detect changes outside of iterators
+     */
+    private int modCount;
+
+    private Set<Entry<Object, Object>> entrySet;
+
+    public YuMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public YuMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 / 4 < expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        table = new Object[capacity * 2];
+        threshold = capacity * 3 / 4;
+    }
+
+    private static Object mask(Object key) {
+        if (key instanceof CharSequence && !(key instanceof String)) {
+            // Views and builders never equal a String
+            return key.toString();
+        }
+        return key == null ? NULL_KEY : key;
+    }
+
+    private static Object unmask(Object key) {
+        return key == NULL_KEY ? null : key;
+    }
+
+    private int slotOf(Object maskedKey) {
+        int h = maskedKey.hashCode() * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & ((table.length >> 1) - 1);
+    }
+
+    /**
+     * Find the slot of the key
+     *
+     * @return Index of the key in table, or -1 if absent
+     */
+    private int find(Object maskedKey) {
+        Object[] tab = table;
+        int mask = (tab.length >> 1) - 1;
+        int slot = slotOf(maskedKey);
+        Object k;
+        while ((k = tab[slot << 1]) != null) {
+            if (k == maskedKey || k.equals(maskedKey)) {
+                return slot << 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    @Override
+    public Object get(Object key) {
+        int index = find(mask(key));
+        return index < 0 ? null : table[index + 1];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find(mask(key)) >= 0;
+    }
+
+    @Override
+    public Object put(Object key, Object value) {
+        Object maskedKey = mask(key);
+        Object[] tab = table;
+        int mask = (tab.length >> 1) - 1;
+        int slot = slotOf(maskedKey);
+        Object k;
+        while ((k = tab[slot << 1]) != null) {
+            if (k == maskedKey || k.equals(maskedKey)) {
+                Object old = tab[(slot << 1) + 1];
+                tab[(slot << 1) + 1] = value;
+                return old;
+            }
+            slot = (slot + 1) & mask;
+        }
+        tab[slot << 1] = maskedKey;
+        tab[(slot << 1) + 1] = value;
+        modCount++;
+        if (++size > threshold) {
+            rehash(tab.length);
+        }
+        return null;
+    }
+
+    private void rehash(int newCapacity) {
+        Object[] old = table;
+        allocate(newCapacity);
+        Object[] tab = table;
+        int mask = (tab.length >> 1) - 1;
+        for (int i = 0; i < old.length; i += 2) {
+            Object k = old[i];
+            if (k != null) {
+                int slot = slotOf(k);
+                while (tab[slot << 1] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                tab[slot << 1] = k;
+                tab[(slot << 1) + 1] = old[i + 1];
+            }
+        }
+    }
+
+    @Override
+    public Object remove(Object key) {
+        int index = find(mask(key));
+        if (index < 0) {
+            return null;
+        }
+        Object old = table[index + 1];
+        removeAt(index >> 1, null);
+        return old;
+    }
+
+    /**
+     * Remove the entry in slot and move back entries of the same probe sequence
+     *
+     * @param iterator Iterator removing the entry, which is told about entries moved from
+     *                 visited slots to slots it has not reached. Null if not removed by an iterator
+     */
+    private void removeAt(int slot, EntryIterator iterator) {
+        Object[] tab = table;
+        int mask = (tab.length >> 1) - 1;
+        int hole = slot;
+        int next = (slot + 1) & mask;
+        Object k;
+        while ((k = tab[next << 1]) != null) {
+            int home = slotOf(k);
+            // Move the entry if its home slot is not in (hole, next]
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                if (iterator != null && next < slot && hole >= slot) {
+                    // Wrapped around from the start of table
+                    iterator.skip(k);
+                }
+                tab[hole << 1] = k;
+                tab[(hole << 1) + 1] = tab[(next << 1) + 1];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        tab[hole << 1] = null;
+        tab[(hole << 1) + 1] = null;
+        size--;
+        modCount++;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(table, null);
+        size = 0;
+        modCount++;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Copy keys to a new array
+     */
+    public Object[] toKeyArray() {
+        Object[] keys = new Object[size];
+        Object[] tab = table;
+        int j = 0;
+        for (int i = 0; i < tab.length; i += 2) {
+            if (tab[i] != null) {
+                keys[j++] = unmask(tab[i]);
+            }
+        }
+        return keys;
+    }
+
+    @Override
+    public Set<Entry<Object, Object>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Entry<Object, Object>>() {
+                @Override
+                public Iterator<Entry<Object, Object>> iterator() {
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    private class EntryIterator implements Iterator<Entry<Object, Object>> {
+
+        private final Object[] tab = table;
+
+        private int expectedModCount = modCount;
+
+        private int index;
+
+        private int lastReturned = -1;
+
+        /**
+         * Masked keys already returned but moved ahead by removal
+         */
+        private List<Object> skipped;
+
+        EntryIterator() {
+            index = advance(0);
+        }
+
+        private int advance(int from) {
+            while (from < tab.length && (tab[from] == null || isSkipped(tab[from]))) {
+                from += 2;
+            }
+            return from;
+        }
+
+        void skip(Object maskedKey) {
+            if (skipped == null) {
+                skipped = new ArrayList<>(2);
+            }
+            skipped.add(maskedKey);
+        }
+
+        private boolean isSkipped(Object maskedKey) {
+            if (skipped != null) {
+                for (int i = 0; i < skipped.size(); i++) {
+                    if (skipped.get(i) == maskedKey) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index < tab.length;
+        }
+
+        @Override
+        public Map.Entry<Object, Object> next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (index >= tab.length) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<Object, Object> entry = new MapEntry(tab[index], tab[index + 1]);
+            lastReturned = index;
+            index = advance(index + 2);
+            return entry;
+        }
+
+        @Override
+        public void remove() {
+            if (lastReturned < 0) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            removeAt(lastReturned >> 1, this);
+            expectedModCount = modCount;
+            // An entry after it may be moved to its slot
+            index = advance(lastReturned);
+            lastReturned = -1;
+        }
+
+    }
+
+    /**
+     * Entry writing its value to the map
+     */
+    @SuppressWarnings("serial")
+    private class MapEntry extends SimpleEntry<Object, Object> {
+
+        private final Object maskedKey;
+
+        MapEntry(Object maskedKey, Object value) {
+            super(unmask(maskedKey), value);
+            this.maskedKey = maskedKey;
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            int index = find(maskedKey);
+            if (index >= 0) {
+                table[index + 1] = value;
+            }
+            return super.setValue(value);
+        }
+
+    }
+
+}
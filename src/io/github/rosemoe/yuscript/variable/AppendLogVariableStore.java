@@ -0,0 +1,799 @@
+/*
+ * Copyright 2020 Rose2073
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.rosemoe.yuscript.variable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A durable variable store that keeps variables in memory and saves modifications to an append-only log file.
+ * Modifications are written behind by a background thread in batches, so scripts never wait for disk I/O.
+ * Only the latest value of a variable is written when a batch is flushed, so frequently updated counters
+ * produce one record per batch. The log is compacted when it grows too large.
+ * <p>
+ * Values of type String, Long, Integer, Double and Boolean are persisted. Other values are kept in memory only.
+ * Sessions invalidated in the session store are removed from the log as well.
+ * Sessions evicted because of idle time or size limits are kept in the log for one day by default, and they are
+ * read from the log again when they are used in that time.
+ *
+ * @author Rose
+ */
+public class AppendLogVariableStore extends MemoryVariableStore {
+
+    private final static int MAGIC = 0x59555653;
+    private final static int FORMAT_VERSION = 1;
+
+    private final static byte OP_PUT = 1, OP_REMOVE = 2, OP_DROP_SESSION = 3;
+    private final static byte TYPE_STRING = 1, TYPE_LONG = 2, TYPE_INT = 3, TYPE_DOUBLE = 4, TYPE_BOOL = 5;
+
+    private final static long DEFAULT_COMPACTION_THRESHOLD = 64L * 1024 * 1024;
+
+    private final static long DEFAULT_EVICTED_SESSION_KEEP_TIME = TimeUnit.DAYS.toMillis(1);
+
+    private final static int DEFAULT_MAX_EVICTED_SESSION_COUNT = 65536;
+
+    private final static long EXPIRATION_CHECK_INTERVAL = 1000;
+
+    private final File file;
+
+    private final Queue<Object> pending = new ConcurrentLinkedQueue<>();
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    /**
+     * Guards the channel and offsets of evicted sessions, which are replaced by compaction
+     */
+    private final ReentrantReadWriteLock channelLock = new ReentrantReadWriteLock();
+
+    /**
+     * Sessions that are evicted from memory but still in log
+     */
+    private final Map<Integer, EvictedSession> evicted = new ConcurrentHashMap<>();
+
+    /**
+     * Evicted sessions in {@link #unwritten}, whose offsets are relative to the batch
+     */
+    private final List<EvictedSession> unwrittenEvicted = new ArrayList<>();
+
+    private final Thread writer;
+
+    private final long flushIntervalNanos;
+
+    private volatile boolean replaying;
+
+    private volatile boolean closed;
+
+    private volatile long compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+
+    private volatile long evictedSessionKeepTime = DEFAULT_EVICTED_SESSION_KEEP_TIME;
+
+    private volatile int maxEvictedSessionCount = DEFAULT_MAX_EVICTED_SESSION_COUNT;
+
+    /**
+     * Failure of the background writer, reported by next {@link #flush()} or {@link #close()}
+     */
+    private volatile IOException writerError;
+
+    private FileChannel channel;
+
+    /**
+     * Size of log that is completely written. Anything after it is left by a failed write
+     */
+    private long logSize;
+
+    /**
+     * A batch that failed to be written. It is written again before other records
+     */
+    private byte[] unwritten;
+
+    private long sizeAfterCompaction;
+
+    private long lastExpirationCheck;
+
+    /**
+     * Open the store with the given log file. Variables in the file are loaded immediately.
+     * Modifications are written every 100 milliseconds.
+     *
+     * @param file The log file. It is created if absent
+     * @throws IOException If the file can not be read or created
+     */
+    public AppendLogVariableStore(File file) throws IOException {
+        this(file, 100, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Open the store with the given log file. Variables in the file are loaded immediately.
+     *
+     * @param file          The log file. It is created if absent
+     * @param flushInterval Interval between batches
+     * @param unit          Unit of flushInterval
+     * @throws IOException If the file can not be read or created
+     */
+    public AppendLogVariableStore(File file, long flushInterval, TimeUnit unit) throws IOException {
+        this.file = file;
+        this.flushIntervalNanos = unit.toNanos(flushInterval);
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        replay();
+        logSize = channel.position();
+        sizeAfterCompaction = logSize;
+        getSessionStore().addRemovalListener((session, cause) -> {
+            if (replaying) {
+                return;
+            }
+            if (cause == SessionStore.RemovalCause.EXPLICIT) {
+                pending.add(new DroppedSession(session.getId()));
+            } else {
+                EvictedSession evictedSession = new EvictedSession(session);
+                evicted.put(session.getId(), evictedSession);
+                pending.add(evictedSession);
+            }
+        });
+        writer = new Thread(this::runWriter, "YuScript-VariableWriter");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Set the log size that triggers compaction.
+     * The log is only compacted when it is also twice as large as it was after last compaction.
+     *
+     * @param compactionThreshold Size in bytes
+     */
+    public void setCompactionThreshold(long compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * Set how long an evicted session is kept in log. It is removed from log if it is not used in this time
+     *
+     * @param evictedSessionKeepTime Time in milliseconds. Negative for no limit
+     */
+    public void setEvictedSessionKeepTime(long evictedSessionKeepTime) {
+        this.evictedSessionKeepTime = evictedSessionKeepTime;
+    }
+
+    public long getEvictedSessionKeepTime() {
+        return evictedSessionKeepTime;
+    }
+
+    /**
+     * Set max count of evicted sessions kept in log. Sessions evicted earliest are removed from log first
+     *
+     * @param maxEvictedSessionCount Max count. Negative for no limit
+     */
+    public void setMaxEvictedSessionCount(int maxEvictedSessionCount) {
+        this.maxEvictedSessionCount = maxEvictedSessionCount;
+    }
+
+    public int getMaxEvictedSessionCount() {
+        return maxEvictedSessionCount;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    protected void onVariableChanged(VariableMap map, String name, Object value) {
+        if (!replaying) {
+            pending.add(new DirtyVariable(map, name));
+        }
+    }
+
+    @Override
+    public Session getSessionVariables(int session) {
+        if (!evicted.isEmpty()) {
+            EvictedSession evictedSession = evicted.get(session);
+            if (evictedSession != null) {
+                reload(evictedSession);
+            }
+        }
+        return super.getSessionVariables(session);
+    }
+
+    @Override
+    public void invalidateSession(int session) {
+        if (!evicted.isEmpty()) {
+            EvictedSession evictedSession = evicted.get(session);
+            if (evictedSession != null) {
+                drop(evictedSession);
+            }
+        }
+        super.invalidateSession(session);
+    }
+
+    /**
+     * Load variables of an evicted session into a new session
+     */
+    private void reload(EvictedSession evictedSession) {
+        synchronized (evictedSession) {
+            if (evicted.get(evictedSession.id) != evictedSession) {
+                // Reloaded or dropped by another thread
+                return;
+            }
+            Session session = super.getSessionVariables(evictedSession.id);
+            Session old = evictedSession.session;
+            try {
+                if (old != null) {
+                    // Not written yet
+                    for (Map.Entry<String, Object> entry : old.entrySet()) {
+                        session.load(entry.getKey(), entry.getValue());
+                    }
+                } else {
+                    readSnapshot(evictedSession, session);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            evicted.remove(evictedSession.id);
+        }
+    }
+
+    /**
+     * Remove an evicted session from log
+     */
+    private void drop(EvictedSession evictedSession) {
+        synchronized (evictedSession) {
+            if (evicted.remove(evictedSession.id, evictedSession)) {
+                pending.add(new DroppedSession(evictedSession.id));
+            }
+        }
+    }
+
+    /**
+     * Read the records written when the session was evicted
+     */
+    private void readSnapshot(EvictedSession evictedSession, Session session) throws IOException {
+        byte[] bytes;
+        channelLock.readLock().lock();
+        try {
+            bytes = read(channel, evictedSession.offset, evictedSession.length);
+        } finally {
+            channelLock.readLock().unlock();
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        Record record = new Record();
+        int position = 0;
+        while (position < bytes.length) {
+            position += readRecord(in, record);
+            if (record.op == OP_PUT) {
+                session.load(record.name, record.value);
+            }
+        }
+    }
+
+    /**
+     * Write pending modifications
+     *
+     * @throws IOException If they can not be written, or the background writer failed since last call
+     */
+    @Override
+    public void flush() throws IOException {
+        writeLock.lock();
+        try {
+            writePending();
+        } finally {
+            writeLock.unlock();
+        }
+        throwWriterError();
+    }
+
+    /**
+     * Write pending modifications and close the log
+     *
+     * @throws IOException If they can not be written, or the background writer failed since last flush
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writeLock.lock();
+        try {
+            try {
+                writePending();
+            } finally {
+                channel.close();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        throwWriterError();
+    }
+
+    private void throwWriterError() throws IOException {
+        IOException error = writerError;
+        if (error != null) {
+            writerError = null;
+            throw error;
+        }
+    }
+
+    private void runWriter() {
+        while (!closed) {
+            LockSupport.parkNanos(this, flushIntervalNanos);
+            try {
+                writeLock.lock();
+                try {
+                    writePending();
+                } finally {
+                    writeLock.unlock();
+                }
+                expireEvictedSessions();
+                compact();
+            } catch (IOException e) {
+                // Unwritten records are kept and written again next time
+                writerError = e;
+            }
+        }
+    }
+
+    /**
+     * Remove evicted sessions that are kept too long, or the earliest ones if there are too many
+     */
+    private void expireEvictedSessions() {
+        long now = System.currentTimeMillis();
+        if (evicted.isEmpty() || now - lastExpirationCheck < EXPIRATION_CHECK_INTERVAL) {
+            return;
+        }
+        lastExpirationCheck = now;
+        long keepTime = evictedSessionKeepTime;
+        if (keepTime >= 0) {
+            for (EvictedSession evictedSession : evicted.values()) {
+                if (now - evictedSession.evictedTime > keepTime) {
+                    drop(evictedSession);
+                }
+            }
+        }
+        int maxCount = maxEvictedSessionCount;
+        if (maxCount >= 0 && evicted.size() > maxCount) {
+            List<EvictedSession> sessions = new ArrayList<>(evicted.values());
+            sessions.sort(Comparator.comparingLong((evictedSession) -> evictedSession.evictedTime));
+            for (int i = 0; i < sessions.size() - maxCount; i++) {
+                drop(sessions.get(i));
+            }
+        }
+    }
+
+    private void writePending() throws IOException {
+        if (unwritten == null && pending.isEmpty()) {
+            return;
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        if (unwritten != null) {
+            out.write(unwritten);
+        }
+        Set<DirtyVariable> written = new HashSet<>();
+        Object item;
+        while ((item = pending.poll()) != null) {
+            if (item instanceof DroppedSession) {
+                out.writeByte(OP_DROP_SESSION);
+                out.writeInt(((DroppedSession) item).session);
+                // Variables of the same session may be modified again later in this batch
+                written.clear();
+                continue;
+            }
+            if (item instanceof EvictedSession) {
+                // Write all variables of the session together, so that they can be read back without scanning the log
+                EvictedSession evictedSession = (EvictedSession) item;
+                int start = buffer.size();
+                for (Map.Entry<String, Object> entry : evictedSession.session.entrySet()) {
+                    writeRecord(out, false, evictedSession.id, entry.getKey(), entry.getValue());
+                }
+                evictedSession.offset = start;
+                evictedSession.length = buffer.size() - start;
+                unwrittenEvicted.add(evictedSession);
+                continue;
+            }
+            DirtyVariable variable = (DirtyVariable) item;
+            if (!written.add(variable)) {
+                continue;
+            }
+            VariableMap map = variable.map;
+            if (map instanceof Session && ((Session) map).isRemoved()) {
+                // Invalidated, or evicted and written as a whole
+                continue;
+            }
+            // Always write the latest value, so that concurrent writers can not reorder records
+            writeRecord(out, map, variable.name, map.get(variable.name));
+        }
+        out.flush();
+        byte[] bytes = buffer.toByteArray();
+        if (bytes.length == 0) {
+            return;
+        }
+        try {
+            if (channel.size() > logSize) {
+                // Partly written by a failed batch
+                channel.truncate(logSize);
+            }
+            channel.position(logSize);
+            writeFully(channel, ByteBuffer.wrap(bytes));
+        } catch (IOException e) {
+            unwritten = bytes;
+            throw e;
+        }
+        for (EvictedSession evictedSession : unwrittenEvicted) {
+            synchronized (evictedSession) {
+                evictedSession.offset += logSize;
+                evictedSession.session = null;
+            }
+        }
+        unwrittenEvicted.clear();
+        unwritten = null;
+        logSize += bytes.length;
+    }
+
+    /**
+     * Compact the log if it is large enough
+     */
+    private void compact() throws IOException {
+        writeLock.lock();
+        try {
+            writePending();
+            if (logSize <= compactionThreshold || logSize <= sizeAfterCompaction * 2) {
+                return;
+            }
+            File temp = new File(file.getPath() + ".compact");
+            FileChannel target = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Map<EvictedSession, Long> offsets = new HashMap<>();
+            boolean moved = false;
+            try {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(buffer);
+                writeHeader(out);
+                for (Map.Entry<String, Object> entry : getGlobalVariables().entrySet()) {
+                    writeRecord(out, getGlobalVariables(), entry.getKey(), entry.getValue());
+                }
+                for (Session session : getSessionStore().getSessions()) {
+                    for (Map.Entry<String, Object> entry : session.entrySet()) {
+                        writeRecord(out, session, entry.getKey(), entry.getValue());
+                    }
+                }
+                for (EvictedSession evictedSession : evicted.values()) {
+                    if (evictedSession.session != null) {
+                        // Evicted after last batch. It is written to the new log later
+                        continue;
+                    }
+                    offsets.put(evictedSession, (long) buffer.size());
+                    out.write(read(channel, evictedSession.offset, evictedSession.length));
+                }
+                out.flush();
+                writeFully(target, ByteBuffer.wrap(buffer.toByteArray()));
+                target.force(true);
+                // The new channel follows the file, and the old log is used until the move succeeds
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                moved = true;
+            } finally {
+                if (!moved) {
+                    target.close();
+                    Files.deleteIfExists(temp.toPath());
+                }
+            }
+            FileChannel old = channel;
+            channelLock.writeLock().lock();
+            try {
+                channel = target;
+                for (Map.Entry<EvictedSession, Long> entry : offsets.entrySet()) {
+                    entry.getKey().offset = entry.getValue();
+                }
+            } finally {
+                channelLock.writeLock().unlock();
+            }
+            logSize = target.position();
+            sizeAfterCompaction = logSize;
+            old.close();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void replay() throws IOException {
+        replaying = true;
+        try {
+            long size = channel.size();
+            if (size == 0) {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(buffer);
+                writeHeader(out);
+                out.flush();
+                writeFully(channel, ByteBuffer.wrap(buffer.toByteArray()));
+                return;
+            }
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("not a variable log:" + file);
+            }
+            long position = 8;
+            Record record = new Record();
+            try {
+                while (position < size) {
+                    position += readRecord(in, record);
+                    apply(record);
+                }
+            } catch (EOFException e) {
+                // Last record is incomplete because of a crash. Discard it
+                channel.truncate(position);
+            }
+            channel.position(position);
+        } finally {
+            replaying = false;
+        }
+    }
+
+    private void apply(Record record) {
+        if (record.op == OP_DROP_SESSION) {
+            invalidateSession(record.session);
+            return;
+        }
+        Map<String, Object> map = record.global ? getGlobalVariables() : getSessionVariables(record.session);
+        if (record.op == OP_REMOVE) {
+            map.remove(record.name);
+        } else {
+            map.put(record.name, record.value);
+        }
+    }
+
+    /**
+     * Decode a record
+     *
+     * @param record Receives the record
+     * @return Length of the record in bytes
+     */
+    private int readRecord(DataInputStream in, Record record) throws IOException {
+        byte op = in.readByte();
+        record.op = op;
+        if (op == OP_DROP_SESSION) {
+            record.global = false;
+            record.session = in.readInt();
+            return 5;
+        }
+        record.global = in.readBoolean();
+        record.session = in.readInt();
+        int length = 6;
+        byte[] nameBytes = new byte[in.readUnsignedShort()];
+        in.readFully(nameBytes);
+        length += 2 + nameBytes.length;
+        record.name = new String(nameBytes, StandardCharsets.UTF_8);
+        record.value = null;
+        if (op == OP_REMOVE) {
+            return length;
+        }
+        if (op != OP_PUT) {
+            throw new IOException("bad record in variable log:" + file);
+        }
+        Object value;
+        byte type = in.readByte();
+        length++;
+        switch (type) {
+            case TYPE_STRING:
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                length += 4 + bytes.length;
+                value = new String(bytes, StandardCharsets.UTF_8);
+                break;
+            case TYPE_LONG:
+                value = in.readLong();
+                length += 8;
+                break;
+            case TYPE_INT:
+                value = in.readInt();
+                length += 4;
+                break;
+            case TYPE_DOUBLE:
+                value = in.readDouble();
+                length += 8;
+                break;
+            case TYPE_BOOL:
+                value = in.readBoolean();
+                length++;
+                break;
+            default:
+                throw new IOException("bad value type in variable log:" + file);
+        }
+        record.value = value;
+        return length;
+    }
+
+    private static void writeHeader(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+    }
+
+    private static void writeRecord(DataOutputStream out, VariableMap map, String name, Object value) throws IOException {
+        writeRecord(out, !(map instanceof Session), map instanceof Session ? ((Session) map).getId() : 0, name, value);
+    }
+
+    private static void writeRecord(DataOutputStream out, boolean global, int session, String name, Object value) throws IOException {
+        byte type;
+        if (value instanceof CharSequence) {
+            type = TYPE_STRING;
+        } else if (value instanceof Long) {
+            type = TYPE_LONG;
+        } else if (value instanceof Integer) {
+            type = TYPE_INT;
+        } else if (value instanceof Double) {
+            type = TYPE_DOUBLE;
+        } else if (value instanceof Boolean) {
+            type = TYPE_BOOL;
+        } else {
+            // Removed or not persistable. Remove the old value in log
+            type = 0;
+        }
+        out.writeByte(type == 0 ? OP_REMOVE : OP_PUT);
+        out.writeBoolean(global);
+        out.writeInt(session);
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(nameBytes.length);
+        out.write(nameBytes);
+        if (type == 0) {
+            return;
+        }
+        out.writeByte(type);
+        switch (type) {
+            case TYPE_STRING:
+                byte[] bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                break;
+            case TYPE_LONG:
+                out.writeLong((Long) value);
+                break;
+            case TYPE_INT:
+                out.writeInt((Integer) value);
+                break;
+            case TYPE_DOUBLE:
+                out.writeDouble((Double) value);
+                break;
+            case TYPE_BOOL:
+                out.writeBoolean((Boolean) value);
+                break;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static byte[] read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * A variable that is modified since last flush
+     */
+    private final static class DirtyVariable {
+
+        final VariableMap map;
+
+        final String name;
+
+        DirtyVariable(VariableMap map, String name) {
+            this.map = map;
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof DirtyVariable)) {
+                return false;
+            }
+            DirtyVariable other = (DirtyVariable) o;
+            return map == other.map && name.equals(other.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(map) * 31 + name.hashCode();
+        }
+
+    }
+
+    /**
+     * A record read from log
+     */
+    private final static class Record {
+
+        byte op;
+
+        boolean global;
+
+        int session;
+
+        String name;
+
+        Object value;
+
+    }
+
+    /**
+     * A session that is evicted from memory
+     */
+    private final static class EvictedSession {
+
+        final int id;
+
+        final long evictedTime = System.currentTimeMillis();
+
+        /**
+         * The evicted session, until its variables are written
+         */
+        volatile Session session;
+
+        /**
+         * Position and length of its variables in log
+         */
+        long offset;
+
+        int length;
+
+        EvictedSession(Session session) {
+            this.id = session.getId();
+            this.session = session;
+        }
+
+    }
+
+    /**
+     * A session that is removed
+     */
+    private final static class DroppedSession {
+
+        final int session;
+
+        DroppedSession(int session) {
+            this.session = session;
+        }
+
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2020 Rose2073
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.rosemoe.yuscript.variable;
+
+import java.io.IOException;
+
+/**
+ * Default variable store that keeps all variables in memory.
+ * Sessions are managed by a {@link SessionStore}, which can be configured to evict sessions.
+ *
+ * @author Rose
+ */
+public class MemoryVariableStore implements VariableStore {
+
+    private final VariableMap globalVariables;
+
+    private final SessionStore sessionStore;
+
+    public MemoryVariableStore() {
+        VariableListener listener = this::onVariableChanged;
+        globalVariables = new VariableMap(listener);
+        sessionStore = new SessionStore(listener);
+    }
+
+    /**
+     * Called after a global or session variable is modified.
+     * Subclasses can override this to save modifications.
+     *
+     * @see VariableListener#onVariableChanged(VariableMap, String, Object)
+     */
+    protected void onVariableChanged(VariableMap map, String name, Object value) {
+    }
+
+    public SessionStore getSessionStore() {
+        return sessionStore;
+    }
+
+    @Override
+    public VariableMap getGlobalVariables() {
+        return globalVariables;
+    }
+
+    @Override
+    public Session getSessionVariables(int session) {
+        return sessionStore.getSession(session);
+    }
+
+    @Override
+    public void invalidateSession(int session) {
+        sessionStore.invalidate(session);
+    }
+
+    @Override
+    public void flush() throws IOException {
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+
+}
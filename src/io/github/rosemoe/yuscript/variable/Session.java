@@ -0,0 +1,128 @@
+/*
+ * Copyright 2020 Rose2073
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.rosemoe.yuscript.variable;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Variables of a session ('ss.' variables).
+ * The last access time is updated when a context attaches to this session.
+ * Contexts pin their session while they are obtained from a pool or evaluating scripts, so that it is not evicted while in use.
+ *
+ * @author Rose
+ */
+public class Session extends VariableMap {
+
+    private final int id;
+
+    private final SessionStore store;
+
+    private volatile long lastAccessTime;
+
+    private volatile boolean removed;
+
+    /**
+     * Count of pins, or -1 if the session is being evicted
+     */
+    private final AtomicInteger pins = new AtomicInteger();
+
+    Session(int id, SessionStore store) {
+        super(store.getVariableListener());
+        this.id = id;
+        this.store = store;
+        store.addBytes(getEstimatedBytes());
+        lastAccessTime = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the id
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return Last time a context attached to this session, in milliseconds
+     */
+    public long getLastAccessTime() {
+        return lastAccessTime;
+    }
+
+    /**
+     * @return Whether this session is removed from its store
+     */
+    public boolean isRemoved() {
+        return removed;
+    }
+
+    /**
+     * Keep this session from being evicted until {@link #unpin()} is called
+     *
+     * @return False if this session is being evicted, and it should be fetched from store again
+     */
+    public boolean pin() {
+        for (; ; ) {
+            int count = pins.get();
+            if (count < 0) {
+                return false;
+            }
+            if (pins.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Release a pin obtained by {@link #pin()}
+     */
+    public void unpin() {
+        pins.decrementAndGet();
+    }
+
+    /**
+     * @return Whether this session is pinned by any context
+     */
+    public boolean isPinned() {
+        return pins.get() > 0;
+    }
+
+    /**
+     * Mark this session as being evicted if it is not pinned
+     *
+     * @return Whether it can be evicted
+     */
+    boolean markEvicting() {
+        return pins.compareAndSet(0, -1);
+    }
+
+    void touch(long now) {
+        if (lastAccessTime != now) {
+            lastAccessTime = now;
+        }
+    }
+
+    void markRemoved() {
+        removed = true;
+    }
+
+    @Override
+    protected void onBytesChanged(long delta) {
+        if (!removed) {
+            store.addBytes(delta);
+        }
+    }
+
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2020 Rose2073
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.rosemoe.yuscript.variable;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Holds variables of all sessions.
+ * Sessions are created lazily without global locks, and can be evicted when they are idle for
+ * too long or when there are too many sessions or bytes in store.
+ * Eviction is done by the thread that creates a new session or calls {@link #cleanUp()}.
+ * Sessions pinned by contexts in use are never evicted, so their modifications are not lost.
+ * By default, no limit is set and sessions are only removed by {@link #invalidate(int)}.
+ *
+ * @author Rose
+ */
+public class SessionStore {
+
+    /**
+     * The reason why a session is removed
+     */
+    public enum RemovalCause {
+        /**
+         * Removed by {@link #invalidate(int)} or {@link #invalidateAll()}
+         */
+        EXPLICIT,
+        /**
+         * Not accessed for longer than max idle time
+         */
+        IDLE,
+        /**
+         * Evicted to keep session count or estimated bytes under limit
+         */
+        SIZE
+    }
+
+    /**
+     * Listener for session removal
+     */
+    public interface RemovalListener {
+
+        /**
+         * Called after the session is removed from store
+         *
+         * @param session The removed session
+         * @param cause   Why it is removed
+         */
+        void onSessionRemoved(Session session, RemovalCause cause);
+
+    }
+
+    private final static long SWEEP_INTERVAL = 1000;
+
+    private final Map<Integer, Session> sessions = new ConcurrentHashMap<>();
+
+    private final LongAdder totalBytes = new LongAdder();
+
+    private final List<RemovalListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+
+    private volatile long maxIdleTime = -1;
+
+    private volatile int maxSessionCount = -1;
+
+    private volatile long maxBytes = -1;
+
+    private volatile long lastSweepTime;
+
+    private final VariableListener variableListener;
+
+    /**
+     * Create a session store without limits
+     */
+    public SessionStore() {
+        this(null);
+    }
+
+    /**
+     * Create a session store without limits
+     *
+     * @param variableListener Listener for modifications of session variables. Can be null
+     */
+    public SessionStore(VariableListener variableListener) {
+        this.variableListener = variableListener;
+    }
+
+    public VariableListener getVariableListener() {
+        return variableListener;
+    }
+
+    /**
+     * Get the session with the given id. It is created if absent.
+     * This also marks the session as accessed.
+     *
+     * @param id Session id
+     * @return The session
+     */
+    public Session getSession(int id) {
+        long now = System.currentTimeMillis();
+        Session session = sessions.get(id);
+        if (session == null) {
+            session = sessions.computeIfAbsent(id, (key) -> new Session(key, this));
+            if (needSweep(now) && session.pin()) {
+                // The new session is the latest one, and it should not be evicted by its own sweep
+                try {
+                    sweep(now);
+                } finally {
+                    session.unpin();
+                }
+            }
+        }
+        session.touch(now);
+        return session;
+    }
+
+    /**
+     * Get the session with the given id without creating or touching it
+     *
+     * @param id Session id
+     * @return The session or null
+     */
+    public Session getSessionIfPresent(int id) {
+        return sessions.get(id);
+    }
+
+    /**
+     * @return Unmodifiable view of all sessions
+     */
+    public Collection<Session> getSessions() {
+        return Collections.unmodifiableCollection(sessions.values());
+    }
+
+    /**
+     * Remove the session with the given id
+     *
+     * @param id Session id
+     */
+    public void invalidate(int id) {
+        Session session = sessions.get(id);
+        if (session != null) {
+            remove(session, RemovalCause.EXPLICIT);
+        }
+    }
+
+    /**
+     * Remove all sessions
+     */
+    public void invalidateAll() {
+        for (Session session : sessions.values()) {
+            remove(session, RemovalCause.EXPLICIT);
+        }
+    }
+
+    /**
+     * Evict idle sessions and sessions over limit now
+     */
+    public void cleanUp() {
+        sweep(System.currentTimeMillis());
+    }
+
+    /**
+     * @return Count of sessions in store
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * @return Estimated bytes used by all sessions
+     */
+    public long getEstimatedBytes() {
+        return totalBytes.sum();
+    }
+
+    /**
+     * Set max idle time of a session
+     *
+     * @param maxIdleTime Time in milliseconds. Negative for no limit
+     */
+    public void setMaxIdleTime(long maxIdleTime) {
+        this.maxIdleTime = maxIdleTime;
+    }
+
+    public long getMaxIdleTime() {
+        return maxIdleTime;
+    }
+
+    /**
+     * Set max count of sessions
+     *
+     * @param maxSessionCount Max count. Negative for no limit
+     */
+    public void setMaxSessionCount(int maxSessionCount) {
+        this.maxSessionCount = maxSessionCount;
+    }
+
+    public int getMaxSessionCount() {
+        return maxSessionCount;
+    }
+
+    /**
+     * Set max estimated bytes of all sessions
+     *
+     * @param maxBytes Max bytes. Negative for no limit
+     */
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public void addRemovalListener(RemovalListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeRemovalListener(RemovalListener listener) {
+        listeners.remove(listener);
+    }
+
+    void addBytes(long delta) {
+        totalBytes.add(delta);
+    }
+
+    private boolean isOverLimit(int sessionSlack, long byteSlack) {
+        int maxCount = maxSessionCount;
+        long maxBytes = this.maxBytes;
+        return (maxCount >= 0 && sessions.size() > maxCount - sessionSlack) || (maxBytes >= 0 && totalBytes.sum() > maxBytes - byteSlack);
+    }
+
+    private boolean needSweep(long now) {
+        return isOverLimit(0, 0) || (maxIdleTime >= 0 && now - lastSweepTime >= SWEEP_INTERVAL);
+    }
+
+    private void sweep(long now) {
+        // Only one thread sweeps at a time, others just go on
+        if (!sweeping.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            lastSweepTime = now;
+            long idle = maxIdleTime;
+            if (idle >= 0) {
+                for (Session session : sessions.values()) {
+                    if (now - session.getLastAccessTime() > idle) {
+                        evict(session, RemovalCause.IDLE);
+                    }
+                }
+            }
+            if (isOverLimit(0, 0)) {
+                // Evict down to a low water mark so that we do not sort on every new session
+                int sessionSlack = Math.max(maxSessionCount, 0) >> 3;
+                long byteSlack = Math.max(maxBytes, 0) >> 3;
+                Session[] candidates = sessions.values().toArray(new Session[0]);
+                Arrays.sort(candidates, Comparator.comparingLong(Session::getLastAccessTime));
+                for (Session session : candidates) {
+                    if (!isOverLimit(sessionSlack, byteSlack)) {
+                        break;
+                    }
+                    evict(session, RemovalCause.SIZE);
+                }
+            }
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    private void evict(Session session, RemovalCause cause) {
+        // Pinned sessions are skipped
+        if (session.markEvicting()) {
+            remove(session, cause);
+        }
+    }
+
+    private void remove(Session session, RemovalCause cause) {
+        if (sessions.remove(session.getId(), session)) {
+            session.markRemoved();
+            totalBytes.add(-session.getEstimatedBytes());
+            for (RemovalListener listener : listeners) {
+                listener.onSessionRemoved(session, cause);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2020 Rose2073
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.rosemoe.yuscript.variable;
+
+import java.lang.reflect.Array;
+
+/**
+ * Rough estimation of memory used by script values.
+ * Only the object itself is measured (and characters of strings), referenced objects are not counted.
+ *
+ * @author Rose
+ */
+public final class SizeEstimator {
+
+    /**
+     * Estimated size of a hash map entry without its key and value
+     */
+    public final static int ENTRY_OVERHEAD = 32;
+
+    private final static int OBJECT_HEADER = 16;
+
+    private final static int REFERENCE = 4;
+
+    private SizeEstimator() {
+    }
+
+    /**
+     * Estimate memory used by a map entry
+     *
+     * @param key   Key of entry
+     * @param value Value of entry
+     * @return Estimated bytes
+     */
+    public static long sizeOfEntry(String key, Object value) {
+        return ENTRY_OVERHEAD + sizeOf(key) + sizeOf(value);
+    }
+
+    /**
+     * Estimate memory used by the given object
+     *
+     * @param obj The object
+     * @return Estimated bytes
+     */
+    public static long sizeOf(Object obj) {
+        if (obj == null) {
+            return 0;
+        }
+        if (obj instanceof CharSequence) {
+            return OBJECT_HEADER + 24 + 2L * ((CharSequence) obj).length();
+        }
+        if (obj instanceof Number || obj instanceof Boolean || obj instanceof Character) {
+            return OBJECT_HEADER + 8;
+        }
+        Class<?> clazz = obj.getClass();
+        if (clazz.isArray()) {
+            return OBJECT_HEADER + (long) Array.getLength(obj) * elementSize(clazz.getComponentType());
+        }
+        return OBJECT_HEADER + 8;
+    }
+
+    private static int elementSize(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        }
+        if (type == int.class || type == float.class) {
+            return 4;
+        }
+        if (type == char.class || type == short.class) {
+            return 2;
+        }
+        if (type == byte.class || type == boolean.class) {
+            return 1;
+        }
+        return REFERENCE;
+    }
+
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2020 Rose2073
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.rosemoe.yuscript.variable;
+
+/**
+ * Listener for modifications of a {@link VariableMap}
+ *
+ * @author Rose
+ */
+public interface VariableListener {
+
+    /**
+     * Called after a variable is set or removed
+     *
+     * @param map   The modified map. It is a {@link Session} for session variables
+     * @param name  Name of variable
+     * @param value New value. Null if the variable is removed
+     */
+    void onVariableChanged(VariableMap map, String name, Object value);
+
+}
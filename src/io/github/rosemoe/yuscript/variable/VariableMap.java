@@ -0,0 +1,137 @@
+/*
+ * Copyright 2020 Rose2073
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.rosemoe.yuscript.variable;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe variable map that tracks its estimated memory usage and reports
+ * modifications to an optional {@link VariableListener}.
+ * Null values are not supported.
+ *
+ * @author Rose
+ */
+public class VariableMap extends AbstractMap<String, Object> {
+
+    private final static int BASE_SIZE = 64;
+
+    private final Map<String, Object> variables = new ConcurrentHashMap<>();
+
+    private final AtomicLong estimatedBytes = new AtomicLong(BASE_SIZE);
+
+    private final VariableListener listener;
+
+    /**
+     * Create a variable map
+     *
+     * @param listener Listener for modifications. Can be null
+     */
+    public VariableMap(VariableListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return Estimated bytes used by this map and its variables
+     */
+    public long getEstimatedBytes() {
+        return estimatedBytes.get();
+    }
+
+    /**
+     * Called when estimated bytes changed
+     *
+     * @param delta Changed bytes
+     */
+    protected void onBytesChanged(long delta) {
+    }
+
+    private void addBytes(long delta) {
+        estimatedBytes.addAndGet(delta);
+        onBytesChanged(delta);
+    }
+
+    /**
+     * Put a variable without notifying the listener.
+     * This is used to restore variables from storage.
+     */
+    public void load(String key, Object value) {
+        Object old = variables.put(key, value);
+        if (old == null) {
+            addBytes(SizeEstimator.sizeOfEntry(key, value));
+        } else {
+            addBytes(SizeEstimator.sizeOf(value) - SizeEstimator.sizeOf(old));
+        }
+    }
+
+    @Override
+    public Object get(Object key) {
+        return variables.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return variables.containsKey(key);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        Object old = variables.put(key, value);
+        if (old == null) {
+            addBytes(SizeEstimator.sizeOfEntry(key, value));
+        } else {
+            addBytes(SizeEstimator.sizeOf(value) - SizeEstimator.sizeOf(old));
+        }
+        if (listener != null) {
+            listener.onVariableChanged(this, key, value);
+        }
+        return old;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        Object old = variables.remove(key);
+        if (old != null) {
+            addBytes(-SizeEstimator.sizeOfEntry((String) key, old));
+            if (listener != null) {
+                listener.onVariableChanged(this, (String) key, null);
+            }
+        }
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        for (String key : variables.keySet()) {
+            remove(key);
+        }
+    }
+
+    @Override
+    public int size() {
+        return variables.size();
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return Collections.unmodifiableMap(variables).entrySet();
+    }
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2020 Rose2073
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.rosemoe.yuscript.variable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Storage of session ('ss.') and global ('sss.') variables.
+ * Implementations must be thread-safe, and maps returned must be thread-safe as well.
+ *
+ * @author Rose
+ * @see MemoryVariableStore
+ * @see AppendLogVariableStore
+ */
+public interface VariableStore extends Closeable {
+
+    /**
+     * Get the map of global variables
+     *
+     * @return Global variables
+     */
+    Map<String, Object> getGlobalVariables();
+
+    /**
+     * Get the map of variables of the given session. It is created if absent.
+     *
+     * @param session Session id
+     * @return Session variables
+     */
+    Map<String, Object> getSessionVariables(int session);
+
+    /**
+     * Remove all variables of the given session
+     *
+     * @param session Session id
+     */
+    void invalidateSession(int session);
+
+    /**
+     * Write all pending modifications to the underlying storage
+     *
+     * @throws IOException If an I/O error occurs
+     */
+    void flush() throws IOException;
+
+}